@@ -2,18 +2,41 @@ package com.musicplayer;
 
 import com.musicplayer.model.MusicLibrary;
 import com.musicplayer.model.Playlist;
+import com.musicplayer.model.SearchResult;
+import com.musicplayer.model.SmartPlaylist;
+import com.musicplayer.model.SortKeys;
 import com.musicplayer.model.Song;
 import com.musicplayer.model.UserPlaylist;
+import com.musicplayer.service.AvailabilityChecker;
+import com.musicplayer.service.FolderWatcher;
+import com.musicplayer.service.LibraryScanner;
 import com.musicplayer.service.PlayerEngine;
+import com.musicplayer.service.PlaylistFiles;
+import com.musicplayer.service.PlaylistImport;
+import com.musicplayer.service.ScanTask;
+import com.musicplayer.service.SearchPipeline;
+import com.musicplayer.service.StartupTimings;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
+import javafx.css.PseudoClass;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
@@ -21,6 +44,7 @@ import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
@@ -33,16 +57,36 @@ import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.StringConverter;
 import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Main application class. Builds the UI and connects the components.
  */
 public class Noiz extends Application {
 
+    private static final String LIBRARY_FILE = "music_library.noiz";
+    private static final String LEGACY_LIBRARY_FILE = "music_library.json";
+    // Matches beyond this many are shown unranked, after the ranked ones
+    private static final int SEARCH_RANK_LIMIT = 500;
+
     private final MusicLibrary library = new MusicLibrary();
     private final PlayerEngine engine = new PlayerEngine();
+    private final LibraryScanner scanner = new LibraryScanner(library);
+    private ScanTask currentScan;
+    private FolderWatcher folderWatcher;
+    private AvailabilityChecker availabilityChecker;
+    private final StartupTimings startupTimings = new StartupTimings();
+    private Timeline scanProgressTimer;
+    // Startup rescans of the saved folders, one at a time
+    private Timeline catchUpTimer;
+    private ScanTask catchUpScan;
 
     private ListView<Playlist> playlistView = new ListView<>();
     private TableView<Song> songView = new TableView<>();
@@ -53,8 +97,17 @@ public class Noiz extends Application {
     private Label currentTimeLabel = new Label("00:00");
     private Label totalTimeLabel = new Label("00:00");
     private TextField searchField = new TextField();
+    // The shown playlist's songs, filtered by the latest search result
+    private FilteredList<Song> filteredSongs;
+    private SearchResult searchResult; // null shows every song
+    // Best search matches first while no column is sorted
+    private final ObjectProperty<Comparator<Song>> rankOrder = new SimpleObjectProperty<>();
+    private SearchPipeline searchPipeline;
     private ToggleButton shuffleButton = new ToggleButton("Shuffle");
     private ToggleButton repeatButton = new ToggleButton("Repeat");
+    // Crossfade length in seconds, 0 for none
+    private ChoiceBox<Integer> crossfadeChoice = new ChoiceBox<>(FXCollections.observableArrayList(0, 2, 4, 6, 8, 12));
+    private Label scanStatusLabel = new Label();
 
     public static void main(String[] args) {
         // You MUST have the JavaFX SDK.
@@ -65,11 +118,8 @@ public class Noiz extends Application {
 
     @Override
     public void start(Stage primaryStage) {
-        // Load library from file before building UI
-        File saveFile = new File(System.getProperty("user.home"), "music_library.json");
-        library.loadFromFile(saveFile);
-
         primaryStage.setTitle("Noiz");
+        startupTimings.mark("fx started");
 
         // --- Layout ---
         BorderPane root = new BorderPane();
@@ -79,8 +129,9 @@ public class Noiz extends Application {
         VBox leftPanel = new VBox(10);
         Button addFolderButton = new Button("Scan Music Folder");
         Button newPlaylistButton = new Button("New Playlist");
-        HBox playlistButtons = new HBox(5, addFolderButton, newPlaylistButton);
-        leftPanel.getChildren().addAll(new Label("Playlists"), playlistView, playlistButtons);
+        Button newSmartPlaylistButton = new Button("New Smart Playlist");
+        HBox playlistButtons = new HBox(5, addFolderButton, newPlaylistButton, newSmartPlaylistButton);
+        leftPanel.getChildren().addAll(new Label("Playlists"), playlistView, playlistButtons, scanStatusLabel);
         root.setLeft(leftPanel);
         BorderPane.setMargin(leftPanel, new Insets(0, 10, 0, 0));
 
@@ -98,12 +149,28 @@ public class Noiz extends Application {
 
         // Wire up folder and playlist buttons
         addFolderButton.setOnAction(e -> {
+            // While a scan is running the button cancels it
+            if (currentScan != null && !currentScan.isDone()) {
+                currentScan.cancel();
+                return;
+            }
             DirectoryChooser chooser = new DirectoryChooser();
             chooser.setTitle("Select Music Folder to Scan");
             File selectedDirectory = chooser.showDialog(primaryStage);
             if (selectedDirectory != null) {
-                // Run scanning in a new thread to keep UI responsive
-                new Thread(() -> library.scanDirectory(selectedDirectory)).start();
+                // Scanning runs on background threads to keep UI responsive
+                currentScan = scanner.scan(selectedDirectory);
+                if (currentScan != null) {
+                    library.addScanFolder(selectedDirectory);
+                    if (folderWatcher != null) {
+                        // Registering every subfolder can take a while on large trees
+                        Thread watchThread = new Thread(() -> folderWatcher.watch(selectedDirectory.toPath()), "noiz-watch-register");
+                        watchThread.setDaemon(true);
+                        watchThread.start();
+                    }
+                    addFolderButton.setText("Cancel Scan");
+                    trackScanProgress(currentScan, addFolderButton);
+                }
             }
         });
 
@@ -118,41 +185,51 @@ public class Noiz extends Application {
             });
         });
 
+        newSmartPlaylistButton.setOnAction(e -> {
+            TextInputDialog nameDialog = new TextInputDialog("My Smart Playlist");
+            nameDialog.setTitle("New Smart Playlist");
+            nameDialog.setHeaderText("Create a playlist that fills itself");
+            nameDialog.setContentText("Playlist name:");
+            nameDialog.showAndWait().ifPresent(name -> {
+                TextInputDialog queryDialog = new TextInputDialog("genre:Rock plays>3 sort:-plays limit:50");
+                queryDialog.setTitle("New Smart Playlist");
+                queryDialog.setHeaderText("Songs matching all terms; use OR for alternatives.\n"
+                        + "artist:, album:, genre:a,b, added>yyyy-mm-dd, plays>N, sort:[-]title|artist|album|added|plays, limit:N");
+                queryDialog.setContentText("Rules:");
+                queryDialog.showAndWait().ifPresent(query -> {
+                    try {
+                        library.createSmartPlaylist(name, query);
+                    } catch (IllegalArgumentException ex) {
+                        new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+                    }
+                });
+            });
+        });
+
         // Bind Playlist view to the library and add context menu
         playlistView.setItems(library.getAllPlaylists());
         setupPlaylistContextMenu();
 
+        // One search pipeline for the song view, whichever playlist it shows
+        searchPipeline = new SearchPipeline(query -> library.search(query, SEARCH_RANK_LIMIT), this::showSearchResult);
+        searchField.textProperty().addListener((o, oldVal, newVal) -> searchPipeline.submit(newVal));
+        // Songs added or retagged since the last search have to be matched too
+        library.getAllSongs().addListener((ListChangeListener<Song>) change -> searchPipeline.rerun());
+
         // When a playlist is clicked, show its songs in the songView
         playlistView.getSelectionModel().selectedItemProperty().addListener((obs, oldPl, newPl) -> {
             if (newPl != null) {
-                // Wrap the playlist's songs in a FilteredList
-                FilteredList<Song> filteredSongs = new FilteredList<>(newPl.getSongs(), p -> true);
-
-                // Add a listener to the search field to update the filter
-                searchField.textProperty().addListener((o, oldVal, newVal) -> {
-                    filteredSongs.setPredicate(song -> {
-                        if (newVal == null || newVal.isEmpty()) {
-                            return true;
-                        }
-                        String lowerCaseFilter = newVal.toLowerCase();
-                        if (song.getTitle().toLowerCase().contains(lowerCaseFilter)) {
-                            return true;
-                        } else if (song.getArtist().toLowerCase().contains(lowerCaseFilter)) {
-                            return true;
-                        } else if (song.getAlbum().toLowerCase().contains(lowerCaseFilter)) {
-                            return true;
-                        } else if (song.getGenre().toLowerCase().contains(lowerCaseFilter)) {
-                            return true;
-                        }
-                        return false;
-                    });
-                });
+                // Wrap the playlist's songs in a FilteredList, filtered by the current search
+                filteredSongs = new FilteredList<>(newPl.getSongs(), searchPredicate());
 
                 // Wrap the FilteredList in a SortedList
                 SortedList<Song> sortedSongs = new SortedList<>(filteredSongs);
 
-                // Bind the SortedList comparator to the TableView comparator
-                sortedSongs.comparatorProperty().bind(songView.comparatorProperty());
+                // Sort by the table's sort columns, falling back to the search
+                // ranking when no column is sorted
+                sortedSongs.comparatorProperty().bind(Bindings.createObjectBinding(
+                        () -> songView.getComparator() != null ? columnOrder() : rankOrder.get(),
+                        songView.comparatorProperty(), rankOrder));
 
                 // Set the sorted and filtered data to the TableView
                 songView.setItems(sortedSongs);
@@ -202,6 +279,7 @@ public class Noiz extends Application {
 
         // Wire up volume slider
         engine.setVolume(volumeSlider.getValue()); // Set initial volume
+        engine.setOnPlayed(library::recordPlay);
         volumeSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
             engine.setVolume(newVal.doubleValue());
         });
@@ -210,6 +288,21 @@ public class Noiz extends Application {
         shuffleButton.setOnAction(e -> engine.toggleShuffle());
         repeatButton.setOnAction(e -> engine.toggleRepeat());
 
+        crossfadeChoice.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(Integer seconds) {
+                return seconds == null || seconds == 0 ? "No Crossfade" : "Crossfade " + seconds + "s";
+            }
+
+            @Override
+            public Integer fromString(String text) {
+                return null; // Not editable
+            }
+        });
+        crossfadeChoice.setValue(0);
+        crossfadeChoice.valueProperty().addListener((obs, oldVal, newVal) ->
+                engine.setCrossfade(javafx.util.Duration.seconds(newVal == null ? 0 : newVal)));
+
         engine.isShuffleProperty().addListener((obs, oldVal, newVal) -> {
             shuffleButton.setSelected(newVal);
             shuffleButton.setStyle(newVal ? "-fx-base: lightgreen;" : "");
@@ -247,13 +340,130 @@ public class Noiz extends Application {
         });
 
         // --- Show Scene ---
+        startupTimings.mark("ui built");
         Scene scene = new Scene(root, 800, 600);
         scene.getStylesheets().add(getClass().getResource("resources/styles.css").toExternalForm());
         primaryStage.setScene(scene);
-        primaryStage.show();
 
         // Select "All Songs" by default
         playlistView.getSelectionModel().selectFirst();
+
+        // Show the window first and fill it in once the library has been read
+        songView.setPlaceholder(new Label("Loading library..."));
+        // Scanning or creating playlists now would race with the load replacing them
+        addFolderButton.setDisable(true);
+        newPlaylistButton.setDisable(true);
+        newSmartPlaylistButton.setDisable(true);
+        primaryStage.show();
+        startupTimings.mark("stage shown");
+
+        File saveFile = new File(System.getProperty("user.home"), LIBRARY_FILE);
+        if (!saveFile.exists()) {
+            // Older versions saved a text file; it is migrated on the next save
+            saveFile = new File(System.getProperty("user.home"), LEGACY_LIBRARY_FILE);
+        }
+        library.loadFromFileAsync(saveFile).whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Could not load the library.");
+                error.printStackTrace();
+            }
+            finishStartup(scene, addFolderButton, newPlaylistButton, newSmartPlaylistButton);
+        });
+    }
+
+    private void finishStartup(Scene scene, Button... disabledButtons) {
+        startupTimings.mark("library ready");
+
+        // From here on, changes are journaled next to the snapshot as they happen
+        library.startAutosave(new File(System.getProperty("user.home"), LIBRARY_FILE));
+        startFolderWatcher();
+        songView.setPlaceholder(null);
+        for (Button button : disabledButtons) {
+            button.setDisable(false);
+        }
+
+        // The first layout pass after loading is when the table gets its rows
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                if (startupTimings.getMillis("first table render") < 0) {
+                    startupTimings.mark("first table render");
+                    System.out.println(startupTimings);
+                    // Can't be removed while the scene is calling its listeners
+                    Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+                }
+            }
+        });
+
+        // The library was loaded as saved; find missing files now that the window is up
+        availabilityChecker = new AvailabilityChecker(library);
+        availabilityChecker.start(library.getAllSongs());
+        startCatchUpScans();
+    }
+
+    /**
+     * Rescans the saved folders for files added or changed while the app was
+     * closed, one folder at a time once the availability check has finished.
+     * Missing files are left marked unavailable rather than removed.
+     */
+    private void startCatchUpScans() {
+        java.util.Deque<File> folders = new java.util.ArrayDeque<>();
+        for (String folder : library.getScanFolders()) {
+            folders.add(new File(folder));
+        }
+        catchUpTimer = new Timeline(new KeyFrame(javafx.util.Duration.millis(250), e -> {
+            if (!availabilityChecker.isDone() || (catchUpScan != null && !catchUpScan.isDone())) {
+                return;
+            }
+            ScanTask next = null;
+            while (next == null && !folders.isEmpty()) {
+                next = scanner.catchUp(folders.poll());
+            }
+            if (next == null) {
+                catchUpTimer.stop();
+            }
+            catchUpScan = next;
+        }));
+        catchUpTimer.setCycleCount(Timeline.INDEFINITE);
+        catchUpTimer.play();
+    }
+
+    private void startFolderWatcher() {
+        try {
+            folderWatcher = new FolderWatcher(scanner);
+        } catch (java.io.IOException e) {
+            System.err.println("Folder watching is not available; rescan manually to pick up changes.");
+            return;
+        }
+        // Watch folders from earlier sessions; changes made while closed are caught up on separately
+        java.util.List<String> folders = new java.util.ArrayList<>(library.getScanFolders());
+        Thread thread = new Thread(() -> {
+            for (String folder : folders) {
+                File directory = new File(folder);
+                if (directory.isDirectory()) {
+                    folderWatcher.watch(directory.toPath());
+                }
+            }
+        }, "noiz-watch-register");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void trackScanProgress(ScanTask task, Button addFolderButton) {
+        if (scanProgressTimer != null) {
+            scanProgressTimer.stop();
+        }
+        // Poll the counters rather than pushing an update per file
+        scanProgressTimer = new Timeline(new KeyFrame(javafx.util.Duration.millis(250), e -> {
+            scanStatusLabel.setText("Scanning: " + task);
+            if (task.isDone()) {
+                scanProgressTimer.stop();
+                scanStatusLabel.setText((task.isCancelled() ? "Scan cancelled: " : "Scan finished: ") + task);
+                addFolderButton.setText("Scan Music Folder");
+            }
+        }));
+        scanProgressTimer.setCycleCount(Timeline.INDEFINITE);
+        scanProgressTimer.play();
     }
 
     private Node createControlsPanel() {
@@ -287,7 +497,7 @@ public class Noiz extends Application {
         nowPlayingBox.setAlignment(Pos.CENTER_LEFT);
         nowPlayingBox.getChildren().addAll(new Label("Now Playing:"), currentSongLabel);
 
-        HBox playBar = new HBox(10, shuffleButton, repeatButton, prevButton, playPauseButton, nextButton, stopButton);
+        HBox playBar = new HBox(10, crossfadeChoice, shuffleButton, repeatButton, prevButton, playPauseButton, nextButton, stopButton);
         playBar.setAlignment(Pos.CENTER);
 
         Pane spacer = new Pane();
@@ -314,20 +524,51 @@ public class Noiz extends Application {
     private void setupSongTableView() {
         songView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
 
+        // Each column sorts by its field's collation keys; see columnOrder
         TableColumn<Song, String> titleCol = new TableColumn<>("Title");
         titleCol.setCellValueFactory(new PropertyValueFactory<>("title"));
+        titleCol.setUserData(SortKeys.Field.TITLE);
 
         TableColumn<Song, String> artistCol = new TableColumn<>("Artist");
         artistCol.setCellValueFactory(new PropertyValueFactory<>("artist"));
+        artistCol.setUserData(SortKeys.Field.ARTIST);
 
         TableColumn<Song, String> albumCol = new TableColumn<>("Album");
         albumCol.setCellValueFactory(new PropertyValueFactory<>("album"));
+        albumCol.setUserData(SortKeys.Field.ALBUM);
 
         TableColumn<Song, String> genreCol = new TableColumn<>("Genre");
         genreCol.setCellValueFactory(new PropertyValueFactory<>("genre"));
+        genreCol.setUserData(SortKeys.Field.GENRE);
 
         songView.getColumns().addAll(titleCol, artistCol, albumCol, genreCol);
 
+        // The SortedList sorts with columnOrder, not the table's own comparator,
+        // so the default policy's check that the two are bound would fail
+        songView.setSortPolicy(table -> true);
+
+        // Grey out songs whose files couldn't be found
+        PseudoClass unavailable = PseudoClass.getPseudoClass("unavailable");
+        songView.setRowFactory(table -> new TableRow<>() {
+            private final ChangeListener<Boolean> availabilityListener =
+                    (obs, wasAvailable, isAvailable) -> pseudoClassStateChanged(unavailable, !isAvailable);
+
+            @Override
+            protected void updateItem(Song song, boolean empty) {
+                Song previous = getItem();
+                if (previous != null) {
+                    previous.availableProperty().removeListener(availabilityListener);
+                }
+                super.updateItem(song, empty);
+                if (song != null && !empty) {
+                    song.availableProperty().addListener(availabilityListener);
+                    pseudoClassStateChanged(unavailable, !song.isAvailable());
+                } else {
+                    pseudoClassStateChanged(unavailable, false);
+                }
+            }
+        });
+
         // --- Context Menu for adding songs to playlists ---
         ContextMenu contextMenu = new ContextMenu();
         Menu addToPlaylistMenu = new Menu("Add to Playlist");
@@ -364,6 +605,8 @@ public class Noiz extends Application {
         ContextMenu contextMenu = new ContextMenu();
         MenuItem renameItem = new MenuItem("Rename");
         MenuItem deleteItem = new MenuItem("Delete");
+        MenuItem importItem = new MenuItem("Import Songs From File...");
+        MenuItem exportItem = new MenuItem("Export To File...");
 
         renameItem.setOnAction(e -> {
             Playlist selectedPlaylist = playlistView.getSelectionModel().getSelectedItem();
@@ -385,24 +628,138 @@ public class Noiz extends Application {
             }
         });
 
-        contextMenu.getItems().addAll(renameItem, deleteItem);
+        importItem.setOnAction(e -> {
+            Playlist selectedPlaylist = playlistView.getSelectionModel().getSelectedItem();
+            if (selectedPlaylist instanceof UserPlaylist) {
+                File file = playlistFileChooser("Import Playlist").showOpenDialog(playlistView.getScene().getWindow());
+                if (file != null) {
+                    importPlaylistFile((UserPlaylist) selectedPlaylist, file);
+                }
+            }
+        });
+
+        exportItem.setOnAction(e -> {
+            Playlist selectedPlaylist = playlistView.getSelectionModel().getSelectedItem();
+            if (selectedPlaylist instanceof UserPlaylist) {
+                FileChooser chooser = playlistFileChooser("Export Playlist");
+                chooser.setInitialFileName(selectedPlaylist.getName() + ".m3u8");
+                File file = chooser.showSaveDialog(playlistView.getScene().getWindow());
+                if (file != null) {
+                    try {
+                        PlaylistFiles.write(selectedPlaylist.getSongs(), file);
+                    } catch (IOException ex) {
+                        System.err.println("Could not export playlist to " + file);
+                        ex.printStackTrace();
+                        new Alert(Alert.AlertType.ERROR, "Could not write " + file.getName() + ": " + ex.getMessage()).showAndWait();
+                    }
+                }
+            }
+        });
+
+        contextMenu.getItems().addAll(renameItem, deleteItem, importItem, exportItem);
 
         playlistView.setContextMenu(contextMenu);
 
-        // Only show the context menu for user-created playlists
+        // Only show the context menu for user-created playlists; smart ones can only be deleted
         playlistView.addEventHandler(ContextMenuEvent.CONTEXT_MENU_REQUESTED, event -> {
             Playlist selected = playlistView.getSelectionModel().getSelectedItem();
-            if (!(selected instanceof UserPlaylist)) {
+            renameItem.setDisable(!(selected instanceof UserPlaylist));
+            importItem.setDisable(!(selected instanceof UserPlaylist));
+            exportItem.setDisable(!(selected instanceof UserPlaylist));
+            if (!(selected instanceof UserPlaylist || selected instanceof SmartPlaylist)) {
                 contextMenu.hide();
             }
         });
     }
 
+    // The table's sort columns as a comparator on cached collation keys,
+    // instead of the table's, which reads each cell's value for every comparison
+    private Comparator<Song> columnOrder() {
+        Comparator<Song> order = null;
+        for (TableColumn<Song, ?> column : songView.getSortOrder()) {
+            Comparator<Song> byColumn = SortKeys.comparator((SortKeys.Field) column.getUserData());
+            if (column.getSortType() == TableColumn.SortType.DESCENDING) {
+                byColumn = byColumn.reversed();
+            }
+            order = order == null ? byColumn : order.thenComparing(byColumn);
+        }
+        return order;
+    }
+
+    private void showSearchResult(SearchResult result) {
+        searchResult = result;
+        if (filteredSongs != null) {
+            filteredSongs.setPredicate(searchPredicate());
+        }
+        rankOrder.set(result == null ? null : Comparator.comparingInt(result::rankOf));
+    }
+
+    // The filter only looks songs up in the search result
+    private Predicate<Song> searchPredicate() {
+        SearchResult result = searchResult;
+        if (result == null) {
+            return song -> true;
+        }
+        return result::matches;
+    }
+
+    private static FileChooser playlistFileChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Playlists", "*.m3u8", "*.m3u", "*.pls"),
+                new FileChooser.ExtensionFilter("All Files", "*.*"));
+        return chooser;
+    }
+
+    // Reads the file in the background and adds what it found in one change
+    private void importPlaylistFile(UserPlaylist playlist, File file) {
+        Thread thread = new Thread(() -> {
+            try {
+                PlaylistImport result = PlaylistFiles.read(file, library);
+                Platform.runLater(() -> {
+                    int added = playlist.addSongs(result.getSongs());
+                    scanStatusLabel.setText("Imported " + file.getName() + ": " + added + " new to the playlist");
+                    if (!result.getUnresolved().isEmpty()) {
+                        List<String> sample = result.getUnresolved().subList(0, Math.min(10, result.getUnresolved().size()));
+                        new Alert(Alert.AlertType.WARNING, result.getUnresolved().size() + " of " + result.getEntryCount()
+                                + " entries are not in the library, e.g.:\n" + String.join("\n", sample)).showAndWait();
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Could not import playlist from " + file);
+                e.printStackTrace();
+                Platform.runLater(() -> new Alert(Alert.AlertType.ERROR,
+                        "Could not read " + file.getName() + ": " + e.getMessage()).showAndWait());
+            }
+        }, "noiz-playlist-import");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     @Override
     public void stop() throws Exception {
-        System.out.println("Closing application and saving library...");
-        File saveFile = new File(System.getProperty("user.home"), "music_library.json");
-        library.saveToFile(saveFile);
+        System.out.println("Closing application and flushing library changes...");
+        if (currentScan != null) {
+            currentScan.cancel();
+        }
+        if (catchUpTimer != null) {
+            catchUpTimer.stop();
+        }
+        if (catchUpScan != null) {
+            catchUpScan.cancel();
+        }
+        if (folderWatcher != null) {
+            folderWatcher.close();
+        }
+        if (availabilityChecker != null) {
+            availabilityChecker.cancel();
+        }
+        if (searchPipeline != null) {
+            searchPipeline.close();
+        }
+        engine.close();
+        library.stopAutosave();
         super.stop();
     }
 }
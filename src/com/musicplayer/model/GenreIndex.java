@@ -0,0 +1,174 @@
+package com.musicplayer.model;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the library's songs by genre, ignoring case and extra whitespace.
+ * Each genre has its own song list that genre playlists show directly, and
+ * it is updated from the library's changes, so adding or removing songs
+ * only touches the genres of those songs.
+ *
+ * Listens to the song list after the SongCatalog, since songs are tracked
+ * by their ID. Only use it on the FX thread.
+ */
+final class GenreIndex {
+    private static final class Bucket {
+        final int number;
+        final String name; // As first seen
+        final SongList songs = new SongList();
+
+        Bucket(int number, String name) {
+            this.number = number;
+            this.name = name;
+        }
+    }
+
+    private final Map<String, Bucket> bucketsByKey = new HashMap<>();
+    private final List<Bucket> buckets = new ArrayList<>();
+    // Bucket number for each song ID, -1 if the song isn't indexed
+    private int[] bucketBySongId = new int[1024];
+    private final List<String> newGenres = new ArrayList<>();
+
+    GenreIndex() {
+        Arrays.fill(bucketBySongId, -1);
+    }
+
+    /** The songs of a genre, matched case-insensitively. Read-only. */
+    ObservableList<Song> songsFor(String genre) {
+        Bucket bucket = bucketsByKey.get(StringDictionary.normalize(genre));
+        return bucket != null ? FXCollections.unmodifiableObservableList(bucket.songs) : FXCollections.emptyObservableList();
+    }
+
+    /** Genres seen for the first time since the last call, by their first spelling. */
+    List<String> drainNewGenres() {
+        List<String> drained = new ArrayList<>(newGenres);
+        newGenres.clear();
+        return drained;
+    }
+
+    void onSongsChanged(ListChangeListener.Change<? extends Song> change) {
+        // Collect per genre first, so each genre list gets one change per library change
+        Map<Bucket, Set<Song>> removals = new LinkedHashMap<>();
+        Map<Bucket, List<Song>> additions = new LinkedHashMap<>();
+        Map<Bucket, Set<Song>> refreshes = new LinkedHashMap<>();
+        boolean cleared = false;
+
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    place(change.getList().get(i), removals, additions, refreshes);
+                }
+                continue;
+            }
+            List<? extends Song> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+            if (change.wasRemoved() && added.isEmpty() && change.getList().isEmpty()) {
+                cleared = true;
+                continue;
+            }
+            for (Song song : change.getRemoved()) {
+                if (!added.contains(song)) {
+                    Bucket old = bucketOf(song);
+                    if (old != null) {
+                        bucketBySongId[song.getId()] = -1;
+                        identitySet(removals, old).add(song);
+                    }
+                }
+            }
+            for (Song song : added) {
+                place(song, removals, additions, refreshes);
+            }
+        }
+
+        if (cleared) {
+            for (Bucket bucket : buckets) {
+                bucket.songs.clear();
+            }
+            Arrays.fill(bucketBySongId, -1);
+            return;
+        }
+        for (Map.Entry<Bucket, Set<Song>> entry : removals.entrySet()) {
+            entry.getKey().songs.removeAll(entry.getValue());
+        }
+        for (Map.Entry<Bucket, Set<Song>> entry : refreshes.entrySet()) {
+            entry.getKey().songs.updated(entry.getValue());
+        }
+        for (Map.Entry<Bucket, List<Song>> entry : additions.entrySet()) {
+            entry.getKey().songs.addAll(entry.getValue());
+        }
+    }
+
+    // Files a new or retagged song under its genre, moving it if the genre changed
+    private void place(Song song, Map<Bucket, Set<Song>> removals, Map<Bucket, List<Song>> additions,
+                       Map<Bucket, Set<Song>> refreshes) {
+        Bucket old = bucketOf(song);
+        Bucket current = bucketFor(song.getGenre());
+        if (old == current) {
+            identitySet(refreshes, current).add(song); // Same genre, new tags
+            return;
+        }
+        if (old != null) {
+            identitySet(removals, old).add(song);
+        }
+        setBucket(song, current);
+        additions.computeIfAbsent(current, b -> new ArrayList<>()).add(song);
+    }
+
+    /**
+     * Forgets all genres, for when the whole library is replaced.
+     * Call while the song list is empty.
+     */
+    void reset() {
+        bucketsByKey.clear();
+        buckets.clear();
+        newGenres.clear();
+        Arrays.fill(bucketBySongId, -1);
+    }
+
+    private Bucket bucketOf(Song song) {
+        int id = song.getId();
+        if (id < 0 || id >= bucketBySongId.length || bucketBySongId[id] < 0) {
+            return null;
+        }
+        return buckets.get(bucketBySongId[id]);
+    }
+
+    private Bucket bucketFor(String genre) {
+        String key = StringDictionary.normalize(genre);
+        Bucket bucket = bucketsByKey.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(buckets.size(), genre.trim());
+            bucketsByKey.put(key, bucket);
+            buckets.add(bucket);
+            newGenres.add(bucket.name);
+        }
+        return bucket;
+    }
+
+    private void setBucket(Song song, Bucket bucket) {
+        int id = song.getId();
+        if (id >= bucketBySongId.length) {
+            int oldLength = bucketBySongId.length;
+            bucketBySongId = Arrays.copyOf(bucketBySongId, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(bucketBySongId, oldLength, bucketBySongId.length, -1);
+        }
+        bucketBySongId[id] = bucket.number;
+    }
+
+    private static Set<Song> identitySet(Map<Bucket, Set<Song>> sets, Bucket bucket) {
+        return sets.computeIfAbsent(bucket, b -> Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+}
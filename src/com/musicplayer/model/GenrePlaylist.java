@@ -1,24 +1,19 @@
 package com.musicplayer.model;
 
-
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 
 /**
  * A "smart" playlist that dynamically shows songs of a specific genre.
- * It filters the main library's list rather than storing songs itself.
+ * It shows the library's list of songs for that genre rather than storing
+ * songs itself; the library keeps that list up to date.
  */
 public class GenrePlaylist implements Playlist {
     private final String genre;
-    private final ObservableList<Song> filteredSongs;
+    private final ObservableList<Song> genreSongs;
 
-    public GenrePlaylist(String genre, ObservableList<Song> allSongs) {
+    public GenrePlaylist(String genre, ObservableList<Song> genreSongs) {
         this.genre = genre;
-
-        // This list automatically updates when the source list changes.
-        this.filteredSongs = new FilteredList<>(allSongs, song ->
-                song.getGenre().equalsIgnoreCase(this.genre)
-        );
+        this.genreSongs = genreSongs;
     }
 
     @Override
@@ -28,7 +23,7 @@ public class GenrePlaylist implements Playlist {
 
     @Override
     public ObservableList<Song> getSongs() {
-        return filteredSongs;
+        return genreSongs;
     }
 
     @Override
@@ -0,0 +1,94 @@
+package com.musicplayer.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Artist, album and genre counts for browsing the library, e.g. in an
+ * "Artist, then Album" view. The counts are kept by the SongCatalog as songs
+ * are added and removed, so reading them doesn't walk the song list. With
+ * a search result as filter, only its matches are counted, which walks the
+ * matches rather than the library.
+ *
+ * Only use it on the FX thread.
+ */
+public final class LibraryFacets {
+    /** One value of a column and the number of songs that have it. */
+    public static final class Facet {
+        private final String value;
+        private final int count;
+
+        Facet(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return value + " (" + count + ")";
+        }
+    }
+
+    private static final Comparator<Facet> BY_VALUE =
+            Comparator.comparing(Facet::getValue, String.CASE_INSENSITIVE_ORDER);
+
+    private final SongCatalog catalog;
+
+    LibraryFacets(SongCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * The values of a column that songs have, with their song counts, by name.
+     * filter may be null to count every song.
+     */
+    public List<Facet> values(SongCatalog.Column column, SearchResult filter) {
+        int[] counts = filter == null ? catalog.counts(column) : catalog.counts(column, filter.ids());
+        List<Facet> facets = new ArrayList<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                facets.add(new Facet(catalog.valueOf(column, code), counts[code]));
+            }
+        }
+        facets.sort(BY_VALUE);
+        return facets;
+    }
+
+    /** The albums an artist has songs on, with song counts, by name. filter may be null. */
+    public List<Facet> albumsOf(String artist, SearchResult filter) {
+        Map<Integer, Integer> counts = filter == null
+                ? catalog.albumCounts(artist) : catalog.albumCounts(artist, filter.ids());
+        List<Facet> facets = new ArrayList<>(counts.size());
+        for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+            facets.add(new Facet(catalog.valueOf(SongCatalog.Column.ALBUM, entry.getKey()), entry.getValue()));
+        }
+        facets.sort(BY_VALUE);
+        return facets;
+    }
+
+    /** The songs of an artist on an album. filter may be null. */
+    public List<Song> songsOf(String artist, String album, SearchResult filter) {
+        return catalog.songsOf(artist, album, filter == null ? null : filter.ids());
+    }
+
+    /** The number of songs with a value in a column. filter may be null. */
+    public int count(SongCatalog.Column column, String value, SearchResult filter) {
+        if (filter == null) {
+            return catalog.count(column, value);
+        }
+        BitSet ids = catalog.idsWith(column, value);
+        ids.and(filter.ids());
+        return ids.cardinality();
+    }
+}
@@ -0,0 +1,601 @@
+package com.musicplayer.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of library changes made since the last snapshot.
+ *
+ * Changes are encoded on the FX thread and written by a background thread,
+ * which syncs the file at most once per flush interval. Each record carries
+ * a checksum, so a record torn by a crash is detected and replay stops there.
+ *
+ * Journals are numbered by generation. Compaction starts a new generation,
+ * writes a snapshot that covers everything before it, renames the snapshot
+ * into place, and only then deletes the older journals. Loading replays every
+ * journal at or after the snapshot's generation, so a crash at any step
+ * loses nothing that was synced.
+ */
+final class LibraryJournal {
+    private static final byte[] MAGIC = {'N', 'Z', 'J', '1'};
+
+    // Songs are keyed by path, and playlists refer to songs by ID
+    private static final byte SONG_PUT = 1;
+    private static final byte SONG_REMOVE = 2;
+    private static final byte SONG_PLAYED = 3;
+    private static final byte PLAYLIST_CREATE = 4;
+    private static final byte PLAYLIST_DELETE = 5;
+    private static final byte PLAYLIST_RENAME = 6;
+    private static final byte MEMBER_INSERT = 7;
+    private static final byte MEMBER_REMOVE = 8;
+    private static final byte MEMBER_SET = 9;
+    private static final byte FOLDER_ADD = 10;
+    private static final byte SMART_PUT = 11;
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long COMPACT_THRESHOLD_BYTES = 4 * 1024 * 1024;
+
+    /** Something for the writer thread to do besides writing a record. */
+    private static final class Command {
+        final LibrarySnapshot snapshot; // Compaction, or null
+        final long generation;
+        final CountDownLatch done;
+        final boolean close;
+
+        Command(LibrarySnapshot snapshot, long generation, CountDownLatch done, boolean close) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+            this.done = done;
+            this.close = close;
+        }
+    }
+
+    private final File snapshotFile;
+    private final Runnable compactionRequest;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    // Owned by the writer thread
+    private FileChannel channel;
+    private long bytesSinceCompaction;
+    private boolean dirty;
+
+    // Owned by the FX thread
+    private long generation;
+    private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+
+    /**
+     * Starts a new journal next to the snapshot file.
+     * compactionRequest is run on the writer thread when the journal has grown
+     * enough that a new snapshot is worthwhile; it should call compact() on
+     * the FX thread.
+     */
+    LibraryJournal(File snapshotFile, long minGeneration, Runnable compactionRequest) throws IOException {
+        this.snapshotFile = snapshotFile;
+        this.compactionRequest = compactionRequest;
+        long latest = existingGenerations(snapshotFile).stream().mapToLong(Long::longValue).max().orElse(0);
+        this.generation = Math.max(minGeneration, latest + 1);
+        this.channel = openGeneration(generation);
+        this.writer = new Thread(this::run, "noiz-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    // --- Recording, called on the FX thread ---
+
+    void songPut(Song song) {
+        append(SONG_PUT, out -> {
+            out.writeInt(song.getId());
+            writeString(out, song.getFilePath());
+            writeString(out, song.getTitle());
+            writeString(out, song.getArtist());
+            writeString(out, song.getAlbum());
+            writeString(out, song.getGenre());
+            out.writeLong(song.getLastModified());
+            out.writeLong(song.getFileSize());
+            out.writeLong(song.getFingerprint());
+            out.writeLong(song.getAddedAt());
+            out.writeInt(song.getPlayCount());
+        });
+    }
+
+    void songPlayed(Song song) {
+        append(SONG_PLAYED, out -> {
+            writeString(out, song.getFilePath());
+            out.writeInt(song.getPlayCount());
+        });
+    }
+
+    void songRemoved(String filePath) {
+        append(SONG_REMOVE, out -> writeString(out, filePath));
+    }
+
+    void playlistCreated(String name) {
+        append(PLAYLIST_CREATE, out -> writeString(out, name));
+    }
+
+    void smartPlaylistPut(String name, String query) {
+        append(SMART_PUT, out -> {
+            writeString(out, name);
+            writeString(out, query);
+        });
+    }
+
+    /** Removes a user or smart playlist. */
+    void playlistDeleted(String name) {
+        append(PLAYLIST_DELETE, out -> writeString(out, name));
+    }
+
+    void playlistRenamed(String oldName, String newName) {
+        append(PLAYLIST_RENAME, out -> {
+            writeString(out, oldName);
+            writeString(out, newName);
+        });
+    }
+
+    void membersInserted(String name, int index, List<? extends Song> songs) {
+        append(MEMBER_INSERT, out -> {
+            writeString(out, name);
+            out.writeInt(index);
+            writeIds(out, songs);
+        });
+    }
+
+    void membersRemoved(String name, int index, int count) {
+        append(MEMBER_REMOVE, out -> {
+            writeString(out, name);
+            out.writeInt(index);
+            out.writeInt(count);
+        });
+    }
+
+    void membersReplaced(String name, List<? extends Song> songs) {
+        append(MEMBER_SET, out -> {
+            writeString(out, name);
+            writeIds(out, songs);
+        });
+    }
+
+    void folderAdded(String folder) {
+        append(FOLDER_ADD, out -> writeString(out, folder));
+    }
+
+    /**
+     * Starts a new journal generation and writes the snapshot in the background.
+     * The capture function receives the new generation and must copy the
+     * library state on the FX thread.
+     */
+    void compact(LongFunction<LibrarySnapshot> capture) {
+        if (!compactionPending.compareAndSet(false, true)) {
+            return;
+        }
+        generation++;
+        queue.add(new Command(capture.apply(generation), generation, null, false));
+    }
+
+    /**
+     * Writes and syncs everything recorded so far, then stops the writer.
+     */
+    void close() {
+        CountDownLatch done = new CountDownLatch(1);
+        queue.add(new Command(null, 0, done, true));
+        try {
+            if (!done.await(10, TimeUnit.SECONDS)) {
+                System.err.println("Timed out waiting for the library journal to flush.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Writer thread ---
+
+    private void run() {
+        long lastSync = System.currentTimeMillis();
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.clear();
+                batch.add(queue.take());
+                // Gather records until the flush interval has passed, unless a command is waiting
+                long wait;
+                while (!(batch.get(batch.size() - 1) instanceof Command)
+                        && (wait = lastSync + FLUSH_INTERVAL_MS - System.currentTimeMillis()) > 0) {
+                    Object next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch);
+
+                for (Object item : batch) {
+                    if (item instanceof byte[]) {
+                        write((byte[]) item);
+                    } else {
+                        Command command = (Command) item;
+                        sync();
+                        if (command.snapshot != null) {
+                            finishCompaction(command);
+                        }
+                        if (command.close) {
+                            channel.close();
+                            command.done.countDown();
+                            return;
+                        }
+                    }
+                }
+                sync();
+                lastSync = System.currentTimeMillis();
+
+                if (bytesSinceCompaction > COMPACT_THRESHOLD_BYTES) {
+                    bytesSinceCompaction = 0;
+                    compactionRequest.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Library journal stopped; changes will not be saved.");
+            e.printStackTrace();
+        }
+    }
+
+    private void write(byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        bytesSinceCompaction += record.length;
+        dirty = true;
+    }
+
+    private void sync() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    private void finishCompaction(Command command) throws IOException {
+        channel.close();
+        channel = openGeneration(command.generation);
+        bytesSinceCompaction = 0;
+        try {
+            command.snapshot.write(snapshotFile);
+            for (long old : existingGenerations(snapshotFile)) {
+                if (old < command.generation) {
+                    Files.deleteIfExists(journalFile(snapshotFile, old).toPath());
+                }
+            }
+        } catch (IOException e) {
+            // The old snapshot and journals are still there, so nothing is lost
+            System.err.println("Could not write library snapshot: " + snapshotFile);
+            e.printStackTrace();
+        }
+        compactionPending.set(false);
+    }
+
+    private FileChannel openGeneration(long gen) throws IOException {
+        FileChannel newChannel = FileChannel.open(journalFile(snapshotFile, gen).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 8);
+        header.put(MAGIC).putLong(gen).flip();
+        newChannel.write(header);
+        newChannel.force(true);
+        return newChannel;
+    }
+
+    // --- Encoding ---
+
+    @FunctionalInterface
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(byte type, Body body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // Length, filled in below
+            out.writeInt(0); // Checksum
+            out.writeByte(type);
+            body.write(out);
+            out.flush();
+
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, 8, record.length - 8);
+            ByteBuffer.wrap(record).putInt(record.length - 8).putInt((int) crc.getValue());
+            queue.add(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Can't happen for an in-memory stream
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeIds(DataOutputStream out, List<? extends Song> songs) throws IOException {
+        out.writeInt(songs.size());
+        for (Song song : songs) {
+            out.writeInt(song.getId());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<Integer> readIds(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(in.readInt());
+        }
+        return ids;
+    }
+
+    // --- Replay ---
+
+    static File journalFile(File snapshotFile, long generation) {
+        return new File(snapshotFile.getPath() + ".journal." + generation);
+    }
+
+    static List<Long> existingGenerations(File snapshotFile) {
+        List<Long> generations = new ArrayList<>();
+        File dir = snapshotFile.getAbsoluteFile().getParentFile();
+        String prefix = snapshotFile.getName() + ".journal.";
+        String[] names = dir == null ? null : dir.list((d, name) -> name.startsWith(prefix));
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    /**
+     * Renames a saved library and its journals to the same names with the
+     * suffix added, keeping them together as a set that can still be loaded.
+     * Used for a library that could not be read, so a new one doesn't
+     * overwrite it. Returns false if anything could not be moved.
+     */
+    static boolean moveAside(File snapshotFile, String suffix) {
+        File movedSnapshot = new File(snapshotFile.getPath() + suffix);
+        try {
+            for (long gen : existingGenerations(snapshotFile)) {
+                Files.move(journalFile(snapshotFile, gen).toPath(), journalFile(movedSnapshot, gen).toPath());
+            }
+            if (snapshotFile.exists()) {
+                Files.move(snapshotFile.toPath(), movedSnapshot.toPath());
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not move the unreadable library aside: " + snapshotFile);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * True if there are journals that the snapshot doesn't include yet.
+     */
+    static boolean hasPendingJournals(File snapshotFile, long snapshotGeneration) {
+        return existingGenerations(snapshotFile).stream().anyMatch(gen -> gen >= snapshotGeneration);
+    }
+
+    /**
+     * Applies the journals written after the snapshot and returns the result.
+     */
+    static LibrarySnapshot replay(File snapshotFile, LibrarySnapshot snapshot) {
+        List<Long> generations = new ArrayList<>(existingGenerations(snapshotFile));
+        generations.removeIf(gen -> gen < snapshot.journalGeneration);
+        if (generations.isEmpty()) {
+            return snapshot;
+        }
+
+        // Expand the snapshot into editable form
+        Map<String, Song> songs = new LinkedHashMap<>();
+        for (Song song : snapshot.songs) {
+            songs.put(song.getFilePath(), song);
+        }
+        Map<String, List<Integer>> playlists = new LinkedHashMap<>();
+        for (LibrarySnapshot.PlaylistData data : snapshot.playlists) {
+            List<Integer> ids = new ArrayList<>(data.songIds.length);
+            for (int id : data.songIds) {
+                ids.add(id);
+            }
+            playlists.put(data.name, ids);
+        }
+        List<String> folders = new ArrayList<>(snapshot.scanFolders);
+        Map<String, String> smartPlaylists = new LinkedHashMap<>(snapshot.smartPlaylists);
+        // Raised past every ID the journals hand out, including songs removed again
+        int[] nextId = {snapshot.nextSongId};
+
+        for (long gen : generations) {
+            replayFile(journalFile(snapshotFile, gen), songs, playlists, smartPlaylists, folders, nextId);
+        }
+
+        // Drop members whose songs were removed
+        BitSet liveIds = new BitSet();
+        for (Song song : songs.values()) {
+            liveIds.set(song.getId());
+        }
+        List<LibrarySnapshot.PlaylistData> playlistData = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> entry : playlists.entrySet()) {
+            int[] members = entry.getValue().stream()
+                    .filter(id -> id >= 0 && liveIds.get(id))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            playlistData.add(new LibrarySnapshot.PlaylistData(entry.getKey(), members));
+        }
+        List<Song> songList = new ArrayList<>(songs.values());
+        return new LibrarySnapshot(songList, folders, playlistData, smartPlaylists,
+                generations.get(generations.size() - 1) + 1, nextId[0]);
+    }
+
+    private static void replayFile(File file, Map<String, Song> songs, Map<String, List<Integer>> playlists,
+                                   Map<String, String> smartPlaylists, List<String> folders, int[] nextId) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Could not read library journal: " + file);
+            return;
+        }
+        if (data.length < MAGIC.length + 8 || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(MAGIC.length + 8);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break; // Torn write at the end
+            }
+            crc.reset();
+            crc.update(data, buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Library journal is damaged after this point, ignoring the rest: " + file);
+                break;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, buffer.position(), length));
+                apply(in, songs, playlists, smartPlaylists, folders, nextId);
+            } catch (IOException e) {
+                System.err.println("Unreadable library journal record in: " + file);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private static void apply(DataInputStream in, Map<String, Song> songs, Map<String, List<Integer>> playlists,
+                              Map<String, String> smartPlaylists, List<String> folders, int[] nextId) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case SONG_PUT: {
+                int id = in.readInt();
+                Song song = new Song(readString(in), readString(in), readString(in), readString(in), readString(in),
+                        in.readLong(), in.readLong(), in.readLong());
+                song.setAddedAt(in.readLong());
+                song.setPlayCount(in.readInt());
+                song.setId(id);
+                nextId[0] = Math.max(nextId[0], id + 1);
+                songs.put(song.getFilePath(), song);
+                break;
+            }
+            case SONG_REMOVE:
+                songs.remove(readString(in));
+                break;
+            case SONG_PLAYED: {
+                Song song = songs.get(readString(in));
+                int playCount = in.readInt();
+                if (song != null) {
+                    song.setPlayCount(playCount);
+                }
+                break;
+            }
+            case SMART_PUT: {
+                String name = readString(in);
+                smartPlaylists.put(name, readString(in));
+                break;
+            }
+            case PLAYLIST_CREATE:
+                playlists.putIfAbsent(readString(in), new ArrayList<>());
+                break;
+            case PLAYLIST_DELETE: {
+                String name = readString(in);
+                playlists.remove(name);
+                smartPlaylists.remove(name);
+                break;
+            }
+            case PLAYLIST_RENAME: {
+                String oldName = readString(in);
+                String newName = readString(in);
+                List<Integer> ids = playlists.remove(oldName);
+                if (ids != null) {
+                    playlists.put(newName, ids);
+                }
+                break;
+            }
+            case MEMBER_INSERT: {
+                List<Integer> ids = playlists.get(readString(in));
+                int index = in.readInt();
+                List<Integer> inserted = readIds(in);
+                if (ids != null) {
+                    ids.addAll(Math.max(0, Math.min(index, ids.size())), inserted);
+                }
+                break;
+            }
+            case MEMBER_REMOVE: {
+                List<Integer> ids = playlists.get(readString(in));
+                int index = in.readInt();
+                int count = in.readInt();
+                if (ids != null && index >= 0 && index < ids.size()) {
+                    ids.subList(index, Math.min(index + count, ids.size())).clear();
+                }
+                break;
+            }
+            case MEMBER_SET: {
+                String name = readString(in);
+                List<Integer> ids = readIds(in);
+                if (playlists.containsKey(name)) {
+                    playlists.put(name, ids);
+                }
+                break;
+            }
+            case FOLDER_ADD: {
+                String folder = readString(in);
+                if (!folders.contains(folder)) {
+                    folders.add(folder);
+                }
+                break;
+            }
+            default:
+                throw new EOFException("Unknown record type " + type);
+        }
+    }
+}
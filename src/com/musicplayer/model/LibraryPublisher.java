@@ -0,0 +1,164 @@
+package com.musicplayer.model;
+
+import javafx.application.Platform;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Collects library changes from background threads and hands them to the
+ * FX thread in batches, either when the batch is full or when the flush
+ * interval has passed. One batch means one list change event instead of one
+ * per song.
+ *
+ * Batch size and interval can be tuned with the noiz.publish.batchSize and
+ * noiz.publish.intervalMs system properties.
+ */
+public class LibraryPublisher {
+    enum Kind { ADD, UPDATE, MOVE, REMOVE, AVAILABLE, UNAVAILABLE }
+
+    static final class Change {
+        final Kind kind;
+        final Song song;
+        final String filePath; // For a move, the old path; the song has the new one
+        final long queuedAt;
+
+        Change(Kind kind, Song song, String filePath) {
+            this.kind = kind;
+            this.song = song;
+            this.filePath = filePath;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    private final Consumer<List<Change>> sink;
+    private final int maxBatchSize;
+    private final long flushIntervalMillis;
+
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+    private final AtomicBoolean timerArmed = new AtomicBoolean(false);
+    private final ScheduledExecutorService timer;
+
+    // Metrics, written on the FX thread
+    private volatile long lastQueueLatencyNanos;
+    private volatile long maxQueueLatencyNanos;
+    private volatile long lastWaitNanos;
+    private volatile int lastBatchSize;
+    private volatile long batchCount;
+    private volatile long publishedCount;
+
+    LibraryPublisher(Consumer<List<Change>> sink) {
+        this.sink = sink;
+        this.maxBatchSize = Math.max(1, Integer.getInteger("noiz.publish.batchSize", 1000));
+        this.flushIntervalMillis = Math.max(1, Long.getLong("noiz.publish.intervalMs", 100));
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "noiz-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void submit(Change change) {
+        pending.add(change);
+        if (pendingCount.incrementAndGet() >= maxBatchSize) {
+            queueFlush();
+        } else if (timerArmed.compareAndSet(false, true)) {
+            timer.schedule(() -> {
+                timerArmed.set(false);
+                queueFlush();
+            }, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void queueFlush() {
+        // At most one flush waits in the FX queue at a time
+        if (!flushQueued.compareAndSet(false, true)) {
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        Platform.runLater(() -> {
+            long latency = System.nanoTime() - queuedAt;
+            flushQueued.set(false);
+            flush(latency);
+        });
+    }
+
+    private void flush(long queueLatency) {
+        List<Change> batch = new ArrayList<>(Math.min(pendingCount.get(), maxBatchSize));
+        Change change;
+        while (batch.size() < maxBatchSize && (change = pending.poll()) != null) {
+            batch.add(change);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        int remaining = pendingCount.addAndGet(-batch.size());
+
+        sink.accept(batch);
+
+        lastQueueLatencyNanos = queueLatency;
+        maxQueueLatencyNanos = Math.max(maxQueueLatencyNanos, queueLatency);
+        lastWaitNanos = System.nanoTime() - batch.get(0).queuedAt;
+        lastBatchSize = batch.size();
+        batchCount++;
+        publishedCount += batch.size();
+
+        if (remaining >= maxBatchSize) {
+            queueFlush();
+        } else if (remaining > 0 && timerArmed.compareAndSet(false, true)) {
+            timer.schedule(() -> {
+                timerArmed.set(false);
+                queueFlush();
+            }, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // --- Metrics ---
+
+    /** Time the last flush spent waiting in the FX event queue. */
+    public double getLastQueueLatencyMillis() {
+        return lastQueueLatencyNanos / 1_000_000.0;
+    }
+
+    /** Worst FX event queue wait seen so far. */
+    public double getMaxQueueLatencyMillis() {
+        return maxQueueLatencyNanos / 1_000_000.0;
+    }
+
+    /** How long the oldest change in the last batch waited before it reached the library. */
+    public double getLastWaitMillis() {
+        return lastWaitNanos / 1_000_000.0;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d changes in %d batches, last batch %d, FX queue %.1f ms (max %.1f ms), wait %.1f ms",
+                getPublishedCount(), getBatchCount(), getLastBatchSize(),
+                getLastQueueLatencyMillis(), getMaxQueueLatencyMillis(), getLastWaitMillis());
+    }
+}
@@ -0,0 +1,340 @@
+package com.musicplayer.model;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the saved library.
+ *
+ * The binary format starts with a string table shared by all songs, so each
+ * artist, album and genre is stored once. Songs follow as fixed-width records
+ * that refer to the table, and playlists as arrays of song IDs. Loading
+ * maps the file and reads it in one pass.
+ *
+ * Changes made since the snapshot was written live in the journal; see
+ * LibraryJournal. The line-based text format of music_library.json can
+ * still be read, so libraries saved before the binary format migrate.
+ */
+final class LibrarySnapshot {
+    private static final byte[] MAGIC = {'N', 'O', 'I', 'Z'};
+    static final int VERSION = 1;
+
+    // Song ID; filePath, title, artist, album, genre string indexes;
+    // lastModified, fileSize, fingerprint, addedAt; playCount
+    private static final int SONG_RECORD_SIZE = 4 + 5 * 4 + 4 * 8 + 4;
+
+    /** A playlist as stored: a name and the IDs of its songs. */
+    static final class PlaylistData {
+        final String name;
+        final int[] songIds;
+
+        PlaylistData(String name, int[] songIds) {
+            this.name = name;
+            this.songIds = songIds;
+        }
+    }
+
+    final List<Song> songs;
+    final List<String> scanFolders;
+    final List<PlaylistData> playlists;
+    // Smart playlist queries by name, in order
+    final Map<String, String> smartPlaylists;
+    // First journal generation that is not included in this snapshot
+    final long journalGeneration;
+    // ID for the next new song; IDs below it may belong to removed songs
+    final int nextSongId;
+
+    LibrarySnapshot(List<Song> songs, List<String> scanFolders, List<PlaylistData> playlists,
+                    Map<String, String> smartPlaylists, long journalGeneration, int nextSongId) {
+        this.songs = songs;
+        this.scanFolders = scanFolders;
+        this.playlists = playlists;
+        this.smartPlaylists = smartPlaylists;
+        this.journalGeneration = journalGeneration;
+        this.nextSongId = nextSongId;
+    }
+
+    /**
+     * Copies the library state into a snapshot that can be written from another thread.
+     * Must be called on the FX thread.
+     */
+    static LibrarySnapshot capture(List<Song> songs, Collection<String> scanFolders, List<UserPlaylist> playlists,
+                                   List<SmartPlaylist> smartPlaylists, long journalGeneration, int nextSongId) {
+        List<PlaylistData> playlistData = new ArrayList<>(playlists.size());
+        for (UserPlaylist playlist : playlists) {
+            playlistData.add(new PlaylistData(playlist.getName(), playlist.getSongIds()));
+        }
+        Map<String, String> queries = new LinkedHashMap<>();
+        for (SmartPlaylist playlist : smartPlaylists) {
+            queries.put(playlist.getName(), playlist.getQuery());
+        }
+        return new LibrarySnapshot(new ArrayList<>(songs), new ArrayList<>(scanFolders), playlistData, queries,
+                journalGeneration, nextSongId);
+    }
+
+    /**
+     * Reads a saved library in either the binary or the legacy text format.
+     */
+    static LibrarySnapshot read(File file) throws IOException {
+        return isBinary(file) ? readBinary(file) : readText(file);
+    }
+
+    static boolean isBinary(File file) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return in.readNBytes(header, 0, header.length) == header.length && Arrays.equals(header, MAGIC);
+        }
+    }
+
+    // --- Binary format ---
+
+    /**
+     * Writes the snapshot to a temporary file, syncs it, and renames it over
+     * the target, so a crash leaves either the old or the new file intact.
+     */
+    void write(File file) throws IOException {
+        // Build the string table
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] songRefs = new int[songs.size() * 5];
+        for (int i = 0; i < songs.size(); i++) {
+            Song song = songs.get(i);
+            songRefs[i * 5] = intern(song.getFilePath(), stringIndex, strings);
+            songRefs[i * 5 + 1] = intern(song.getTitle(), stringIndex, strings);
+            songRefs[i * 5 + 2] = intern(song.getArtist(), stringIndex, strings);
+            songRefs[i * 5 + 3] = intern(song.getAlbum(), stringIndex, strings);
+            songRefs[i * 5 + 4] = intern(song.getGenre(), stringIndex, strings);
+        }
+        int[] folderRefs = scanFolders.stream().mapToInt(folder -> intern(folder, stringIndex, strings)).toArray();
+        int[] playlistNames = playlists.stream().mapToInt(p -> intern(p.name, stringIndex, strings)).toArray();
+        int[] smartRefs = new int[smartPlaylists.size() * 2];
+        int smart = 0;
+        for (Map.Entry<String, String> entry : smartPlaylists.entrySet()) {
+            smartRefs[smart++] = intern(entry.getKey(), stringIndex, strings);
+            smartRefs[smart++] = intern(entry.getValue(), stringIndex, strings);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalGeneration);
+            out.writeInt(nextSongId);
+
+            out.writeInt(strings.size());
+            for (String value : strings) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(songs.size());
+            for (int i = 0; i < songs.size(); i++) {
+                Song song = songs.get(i);
+                out.writeInt(song.getId());
+                for (int field = 0; field < 5; field++) {
+                    out.writeInt(songRefs[i * 5 + field]);
+                }
+                out.writeLong(song.getLastModified());
+                out.writeLong(song.getFileSize());
+                out.writeLong(song.getFingerprint());
+                out.writeLong(song.getAddedAt());
+                out.writeInt(song.getPlayCount());
+            }
+
+            out.writeInt(folderRefs.length);
+            for (int ref : folderRefs) {
+                out.writeInt(ref);
+            }
+
+            out.writeInt(playlists.size());
+            for (int p = 0; p < playlists.size(); p++) {
+                int[] members = playlists.get(p).songIds;
+                out.writeInt(playlistNames[p]);
+                out.writeInt(members.length);
+                for (int id : members) {
+                    out.writeInt(id);
+                }
+            }
+
+            out.writeInt(smartPlaylists.size());
+            for (int ref : smartRefs) {
+                out.writeInt(ref);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static LibrarySnapshot readBinary(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.position(MAGIC.length);
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported library version " + version + " in " + file);
+            }
+            long journalGeneration = buffer.getLong();
+            int nextSongId = buffer.getInt();
+
+            String[] strings = new String[buffer.getInt()];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = buffer.getInt();
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int songCount = buffer.getInt();
+            List<Song> songs = new ArrayList<>(songCount);
+            for (int i = 0; i < songCount; i++) {
+                int base = buffer.position();
+                Song song = new Song(
+                        strings[buffer.getInt(base + 4)],
+                        strings[buffer.getInt(base + 8)],
+                        strings[buffer.getInt(base + 12)],
+                        strings[buffer.getInt(base + 16)],
+                        strings[buffer.getInt(base + 20)],
+                        buffer.getLong(base + 24),
+                        buffer.getLong(base + 32),
+                        buffer.getLong(base + 40)
+                );
+                song.setId(buffer.getInt(base));
+                song.setAddedAt(buffer.getLong(base + 48));
+                song.setPlayCount(buffer.getInt(base + 56));
+                songs.add(song);
+                buffer.position(base + SONG_RECORD_SIZE);
+            }
+
+            List<String> folders = new ArrayList<>();
+            int folderCount = buffer.getInt();
+            for (int i = 0; i < folderCount; i++) {
+                folders.add(strings[buffer.getInt()]);
+            }
+
+            int playlistCount = buffer.getInt();
+            List<PlaylistData> playlists = new ArrayList<>(playlistCount);
+            for (int i = 0; i < playlistCount; i++) {
+                String name = strings[buffer.getInt()];
+                int[] members = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(members);
+                buffer.position(buffer.position() + members.length * 4);
+                playlists.add(new PlaylistData(name, members));
+            }
+
+            Map<String, String> smartPlaylists = new LinkedHashMap<>();
+            int smartCount = buffer.getInt();
+            for (int i = 0; i < smartCount; i++) {
+                String name = strings[buffer.getInt()];
+                smartPlaylists.put(name, strings[buffer.getInt()]);
+            }
+            return new LibrarySnapshot(songs, folders, playlists, smartPlaylists, journalGeneration, nextSongId);
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> index, List<String> strings) {
+        Integer existing = index.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        index.put(value, strings.size());
+        strings.add(value);
+        return strings.size() - 1;
+    }
+
+    // --- Legacy text format, music_library.json ---
+
+    private static LibrarySnapshot readText(File file) throws IOException {
+        List<Song> songs = new ArrayList<>();
+        List<String> folders = new ArrayList<>();
+        List<PlaylistData> playlists = new ArrayList<>();
+        Map<String, Integer> idsByPath = new HashMap<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            Map<String, String> songData = new HashMap<>();
+            String playlistName = null;
+            List<Integer> playlistSongs = new ArrayList<>();
+
+            while ((line = reader.readLine()) != null) {
+                if (line.equals("SONG_START")) {
+                    songData.clear();
+                } else if (line.startsWith("filePath:")) {
+                    songData.put("filePath", line.substring("filePath:".length()));
+                } else if (line.startsWith("title:")) {
+                    songData.put("title", line.substring("title:".length()));
+                } else if (line.startsWith("artist:")) {
+                    songData.put("artist", line.substring("artist:".length()));
+                } else if (line.startsWith("album:")) {
+                    songData.put("album", line.substring("album:".length()));
+                } else if (line.startsWith("genre:")) {
+                    songData.put("genre", line.substring("genre:".length()));
+                } else if (line.equals("SONG_END")) {
+                    String filePath = songData.getOrDefault("filePath", "");
+                    if (filePath.isEmpty() || idsByPath.containsKey(filePath)) {
+                        continue;
+                    }
+                    int id = songs.size();
+                    idsByPath.put(filePath, id);
+                    // No file stats or fingerprint were saved, so the next scan reads the file again
+                    Song song = new Song(
+                        filePath,
+                        songData.getOrDefault("title", ""),
+                        songData.getOrDefault("artist", ""),
+                        songData.getOrDefault("album", ""),
+                        songData.getOrDefault("genre", ""),
+                        0,
+                        0,
+                        0
+                    );
+                    song.setId(id);
+                    songs.add(song);
+                } else if (line.startsWith("PLAYLIST_START:")) {
+                    playlistName = line.substring("PLAYLIST_START:".length());
+                    playlistSongs.clear();
+                } else if (line.startsWith("PLAYLIST_SONG:")) {
+                    Integer id = idsByPath.get(line.substring("PLAYLIST_SONG:".length()));
+                    if (playlistName != null && id != null) {
+                        playlistSongs.add(id);
+                    }
+                } else if (line.equals("PLAYLIST_END")) {
+                    if (playlistName != null) {
+                        playlists.add(new PlaylistData(playlistName, playlistSongs.stream().mapToInt(Integer::intValue).toArray()));
+                        playlistName = null;
+                    }
+                }
+            }
+        }
+        return new LibrarySnapshot(songs, folders, playlists, new LinkedHashMap<>(), 0, songs.size());
+    }
+}
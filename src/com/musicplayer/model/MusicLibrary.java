@@ -1,35 +1,63 @@
 package com.musicplayer.model;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
 import java.io.File;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * Manages all known songs and playlists.
  */
 public class MusicLibrary {
-    private final ObservableList<Song> allSongs;
+    private final SongList allSongs;
     private final ObservableList<Playlist> allPlaylists;
-    private final Set<String> knownFilePaths;
-    private final Set<String> foundGenres;
+    private final Map<String, Song> songsByPath;
+    private final Map<Long, String> pathsByFingerprint;
+    private final Set<String> scanFolders;
+    private final LibraryPublisher publisher;
+    private final SongCatalog catalog;
+    private final GenreIndex genreIndex;
+    private final SmartPlaylists smartPlaylists;
+    private final SearchIndex searchIndex;
+    private final LibraryFacets facets;
+
+    // Autosave: changes are journaled once startAutosave() has been called
+    private LibraryJournal journal;
+    private File snapshotFile;
+    private final Map<UserPlaylist, ListChangeListener<Song>> membershipJournalers = new IdentityHashMap<>();
+    private File loadedFrom;
+    private long loadedGeneration;
+    private boolean loadedNeedsCompaction;
+    // A saved library that could not be read; it is moved aside rather than written over
+    private File unreadableFile;
 
     public MusicLibrary() {
-        this.allSongs = FXCollections.observableArrayList();
+        this.allSongs = new SongList();
         this.allPlaylists = FXCollections.observableArrayList();
-        this.knownFilePaths = new HashSet<>();
-        this.foundGenres = new HashSet<>();
+        this.songsByPath = new ConcurrentHashMap<>(); // Read by scanner threads
+        this.pathsByFingerprint = new ConcurrentHashMap<>();
+        this.scanFolders = new LinkedHashSet<>();
+        this.publisher = new LibraryPublisher(this::applyChanges);
+        this.catalog = new SongCatalog();
+        this.genreIndex = new GenreIndex();
+        this.smartPlaylists = new SmartPlaylists(catalog);
+        this.searchIndex = new SearchIndex();
+        this.facets = new LibraryFacets(catalog);
 
         // Add a default "All Songs" smart playlist
         this.allPlaylists.add(new Playlist() {
@@ -37,6 +65,14 @@ public class MusicLibrary {
             @Override public ObservableList<Song> getSongs() { return allSongs; }
             @Override public String toString() { return getName(); }
         });
+
+        // The genre index and smart playlists rely on the IDs the catalog hands out, so they listen after it
+        this.allSongs.addListener(this::catalogSongChanges);
+        this.allSongs.addListener(genreIndex::onSongsChanged);
+        this.allSongs.addListener(smartPlaylists::onSongsChanged);
+        this.allSongs.addListener(searchIndex::onSongsChanged);
+        this.allSongs.addListener(this::journalSongChanges);
+        this.allPlaylists.addListener(this::journalPlaylistChanges);
     }
 
     public ObservableList<Song> getAllSongs() {
@@ -48,90 +84,267 @@ public class MusicLibrary {
     }
 
     /**
-     * Scans a directory recursively for .mp3 files.
+     * Column index over all songs, for counting and filtering by tag
+     * without walking the song list. FX thread only.
      */
-    public void scanDirectory(File directory) {
-        if (directory == null || !directory.isDirectory()) {
-            return;
-        }
+    public SongCatalog getCatalog() {
+        return catalog;
+    }
 
-        File[] files = directory.listFiles();
-        if (files == null) {
-            return;
-        }
+    /**
+     * Artist, album and genre counts, optionally narrowed to a search
+     * result, for browsing without walking the song list. FX thread only.
+     */
+    public LibraryFacets getFacets() {
+        return facets;
+    }
 
-        for (File file : files) {
-            if (file.isDirectory()) {
-                scanDirectory(file); // Recurse
-            } else if (file.isFile() && file.getName().toLowerCase().endsWith(".mp3")) {
-                addSongFromFile(file);
-            }
+    /**
+     * Finds the songs whose title, artist, album or genre have, for each word
+     * of the query, a word that equals it, starts with it, or nearly matches
+     * it despite a typo, ignoring case and accents. The best matches, up to
+     * limit, are ranked: closer matches and matches in the title come first.
+     * Returns null if the query has no words, in which case every song
+     * matches. Safe to call from any thread; an interrupted search stops
+     * early with a result that should be ignored.
+     */
+    public SearchResult search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Folders the user has scanned, kept so they can be watched for changes.
+     */
+    public Set<String> getScanFolders() {
+        return Collections.unmodifiableSet(scanFolders);
+    }
+
+    public void addScanFolder(File folder) {
+        if (scanFolders.add(folder.getAbsolutePath()) && journal != null) {
+            journal.folderAdded(folder.getAbsolutePath());
         }
     }
 
-    private void addSongFromFile(File file) {
-        String filePath = file.toURI().toString();
+    /**
+     * True if a song with this file URI is already in the library.
+     * Safe to call from scanner threads.
+     */
+    public boolean containsFilePath(String filePath) {
+        return songsByPath.containsKey(filePath);
+    }
+
+    /**
+     * Returns the song for a file URI, or null if it isn't in the library.
+     * Safe to call from scanner threads.
+     */
+    public Song getSongByPath(String filePath) {
+        return songsByPath.get(filePath);
+    }
 
-        // Avoid adding duplicates
-        if (knownFilePaths.contains(filePath)) {
-            return;
+    /**
+     * Returns the file URIs of all songs whose file lies under the given folder URI.
+     * Safe to call from scanner threads.
+     */
+    public Set<String> getFilePathsUnder(String folderUri) {
+        return songsByPath.keySet().stream()
+                .filter(path -> path.startsWith(folderUri))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Records that a file has this content fingerprint, unless another file
+     * already has it. Returns the file URI of the song that already has it,
+     * or null if the fingerprint now belongs to filePath.
+     * Called by scanner threads before queueing a song, so two copies found
+     * in the same scan can't both get in.
+     */
+    public String claimFingerprint(long fingerprint, String filePath) {
+        String owner = pathsByFingerprint.putIfAbsent(fingerprint, filePath);
+        return owner == null || owner.equals(filePath) ? null : owner;
+    }
+
+    /**
+     * Hands a fingerprint from one file to another, e.g. when the first file
+     * was moved to the second. Returns false if from no longer owns it.
+     */
+    public boolean transferFingerprint(long fingerprint, String from, String to) {
+        return pathsByFingerprint.replace(fingerprint, from, to);
+    }
+
+    /**
+     * Gives up a fingerprint claimed by filePath, e.g. when its content changed.
+     */
+    public void releaseFingerprint(long fingerprint, String filePath) {
+        pathsByFingerprint.remove(fingerprint, filePath);
+    }
+
+    /**
+     * Queues a scanned song to be added to the library on the FX thread.
+     * Songs are added in batches; see LibraryPublisher.
+     */
+    public void addSong(Song song) {
+        publisher.submit(new LibraryPublisher.Change(LibraryPublisher.Kind.ADD, song, song.getFilePath()));
+    }
+
+    /**
+     * Queues a refresh of an existing song with rescanned tags.
+     * The song keeps its identity, so playlists that contain it stay intact.
+     */
+    public void updateSong(Song scanned) {
+        publisher.submit(new LibraryPublisher.Change(LibraryPublisher.Kind.UPDATE, scanned, scanned.getFilePath()));
+    }
+
+    /**
+     * Queues moving the song at oldPath to the path of a scanned file, for a
+     * file that was moved or renamed. The song keeps its ID and its place in
+     * playlists, and takes the scanned tags.
+     */
+    public void moveSong(String oldPath, Song scanned) {
+        publisher.submit(new LibraryPublisher.Change(LibraryPublisher.Kind.MOVE, scanned, oldPath));
+    }
+
+    /**
+     * Queues removal of songs whose files are gone, including from user playlists.
+     */
+    public void removeSongs(Collection<String> filePaths) {
+        for (String filePath : filePaths) {
+            publisher.submit(new LibraryPublisher.Change(LibraryPublisher.Kind.REMOVE, null, filePath));
         }
+    }
 
-        try {
-            Media media = new Media(filePath);
-            // Metadata is read asynchronously; use a temporary player to load it.
-            MediaPlayer tempPlayer = new MediaPlayer(media);
-
-            tempPlayer.statusProperty().addListener((obs, oldStatus, newStatus) -> {
-                if (newStatus == MediaPlayer.Status.READY) {
-                    createSongFromMetadata(media, filePath, file);
-                } else if (newStatus == MediaPlayer.Status.HALTED || newStatus == MediaPlayer.Status.UNKNOWN) {
-                    System.err.println("Error reading metadata for: " + file.getPath());
+    /**
+     * Queues a change to whether a song's file could be found.
+     * Unavailable songs stay in the library and in playlists.
+     */
+    public void setAvailable(String filePath, boolean available) {
+        LibraryPublisher.Kind kind = available ? LibraryPublisher.Kind.AVAILABLE : LibraryPublisher.Kind.UNAVAILABLE;
+        publisher.submit(new LibraryPublisher.Change(kind, null, filePath));
+    }
+
+    /**
+     * Metrics for how scan results reach the FX thread.
+     */
+    public LibraryPublisher getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Applies a batch of queued changes on the FX thread, firing one change
+     * event per kind instead of one per song. Retagged songs are reported as
+     * one update change.
+     */
+    private void applyChanges(List<LibraryPublisher.Change> changes) {
+        Map<String, Song> added = new LinkedHashMap<>();
+        Set<Song> updated = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, Song> removed = new HashMap<>();
+
+        for (LibraryPublisher.Change queued : changes) {
+            LibraryPublisher.Change change = queued.kind == LibraryPublisher.Kind.MOVE ? resolveMove(queued) : queued;
+            String filePath = change.filePath;
+            switch (change.kind) {
+                case ADD: {
+                    Song wasRemoved = removed.remove(filePath);
+                    if (wasRemoved != null) {
+                        // Deleted and recreated within one batch: keep the old song
+                        songsByPath.put(filePath, wasRemoved);
+                        wasRemoved.updateFrom(change.song);
+                        updated.add(wasRemoved);
+                    } else if (songsByPath.putIfAbsent(filePath, change.song) == null) { // Avoid adding duplicates
+                        if (change.song.getAddedAt() == 0) {
+                            change.song.setAddedAt(System.currentTimeMillis());
+                        }
+                        added.put(filePath, change.song);
+                    }
+                    break;
                 }
-                if (newStatus == MediaPlayer.Status.READY || newStatus == MediaPlayer.Status.HALTED || newStatus == MediaPlayer.Status.UNKNOWN) {
-                    tempPlayer.dispose();
+                case UPDATE: {
+                    Song existing = songsByPath.get(filePath);
+                    if (existing != null) {
+                        existing.updateFrom(change.song);
+                        if (!added.containsKey(filePath)) {
+                            updated.add(existing);
+                        }
+                    }
+                    break;
                 }
-            });
-            tempPlayer.setOnError(() -> {
-                System.err.println("Error reading metadata for: " + file.getPath());
-                tempPlayer.dispose();
-            });
-
-        } catch (Exception e) {
-            System.err.println("Could not process file: " + file.getPath());
-            e.printStackTrace();
+                case MOVE: {
+                    String newPath = change.song.getFilePath();
+                    Song song = songsByPath.remove(filePath);
+                    releaseFingerprint(song.getFingerprint(), filePath);
+                    song.setFilePath(newPath);
+                    song.updateFrom(change.song);
+                    songsByPath.put(newPath, song);
+                    pathsByFingerprint.putIfAbsent(song.getFingerprint(), newPath);
+                    if (journal != null) {
+                        journal.songRemoved(filePath); // The update below records the song at its new path
+                    }
+                    if (added.remove(filePath) != null) {
+                        added.put(newPath, song);
+                    } else {
+                        updated.add(song);
+                    }
+                    break;
+                }
+                case AVAILABLE:
+                case UNAVAILABLE: {
+                    // Only the row styling depends on this, so no list change is needed
+                    Song song = songsByPath.get(filePath);
+                    if (song != null) {
+                        song.setAvailable(change.kind == LibraryPublisher.Kind.AVAILABLE);
+                    }
+                    break;
+                }
+                case REMOVE: {
+                    Song song = songsByPath.remove(filePath);
+                    if (song != null) {
+                        releaseFingerprint(song.getFingerprint(), filePath);
+                    }
+                    if (song != null && added.remove(filePath) == null) {
+                        updated.remove(song);
+                        removed.put(filePath, song);
+                    }
+                    break;
+                }
+            }
         }
-    }
-
-    private void createSongFromMetadata(Media media, String filePath, File file) {
-        String title = (String) media.getMetadata().get("title");
-        String artist = (String) media.getMetadata().get("artist");
-        String album = (String) media.getMetadata().get("album");
-        String genre = (String) media.getMetadata().get("genre");
 
-        // Use file name as fallback for title
-        if (title == null || title.isEmpty()) {
-            title = file.getName().replace(".mp3", "");
+        if (!removed.isEmpty()) {
+            Set<Song> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+            gone.addAll(removed.values());
+            allSongs.removeAll(gone);
+            for (UserPlaylist playlist : getUserPlaylists()) {
+                playlist.getSongs().removeAll(gone);
+            }
+        }
+        // Filtered and sorted views re-check the songs
+        allSongs.updated(updated);
+        if (!added.isEmpty()) {
+            allSongs.addAll(added.values());
         }
 
-        Song newSong = new Song(
-                filePath,
-                title,
-                (artist == null ? "" : artist),
-                (album == null ? "" : album),
-                (genre == null ? "" : genre)
-        );
+        // Create new "Genre" playlists for this batch in one go
+        allPlaylists.addAll(newGenrePlaylists());
+    }
 
-        // Add to list on FX thread
-        javafx.application.Platform.runLater(() -> {
-            allSongs.add(newSong);
-            knownFilePaths.add(filePath);
+    // A move whose song has left the library, or whose new path is taken, is an add or update there
+    private LibraryPublisher.Change resolveMove(LibraryPublisher.Change move) {
+        String newPath = move.song.getFilePath();
+        if (songsByPath.containsKey(move.filePath) && !songsByPath.containsKey(newPath)) {
+            return move;
+        }
+        LibraryPublisher.Kind kind = songsByPath.containsKey(newPath) ? LibraryPublisher.Kind.UPDATE : LibraryPublisher.Kind.ADD;
+        return new LibraryPublisher.Change(kind, move.song, newPath);
+    }
 
-            // Check if we need to create a new "Genre" smart playlist
-            if (genre != null && !genre.isEmpty() && foundGenres.add(genre)) {
-                allPlaylists.add(new GenrePlaylist(genre, allSongs));
+    // "Genre" smart playlists for genres the index has seen for the first time
+    private List<Playlist> newGenrePlaylists() {
+        List<Playlist> newPlaylists = new ArrayList<>();
+        for (String genre : genreIndex.drainNewGenres()) {
+            if (!StringDictionary.normalize(genre).equals("unknown genre")) {
+                newPlaylists.add(new GenrePlaylist(genre, genreIndex.songsFor(genre)));
             }
-        });
+        }
+        return newPlaylists;
     }
 
     public void createUserPlaylist(String name) {
@@ -147,6 +360,38 @@ public class MusicLibrary {
         allPlaylists.add(newPlaylist);
     }
 
+    /**
+     * Creates a playlist that holds the songs matching a query; see SmartPlaylist
+     * for the syntax. Throws IllegalArgumentException if the query can't be understood.
+     */
+    public void createSmartPlaylist(String name, String query) {
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        if (allPlaylists.stream().anyMatch(p -> p.getName().equalsIgnoreCase(name))) {
+            System.err.println("Playlist with name '" + name + "' already exists.");
+            return;
+        }
+        SmartPlaylist playlist = new SmartPlaylist(name, query);
+        smartPlaylists.add(playlist);
+        allPlaylists.add(playlist);
+    }
+
+    /**
+     * Counts a song as played, which smart playlists on play count pick up.
+     * Call on the FX thread when a song has played to the end.
+     */
+    public void recordPlay(Song song) {
+        if (!catalog.contains(song)) {
+            return;
+        }
+        song.setPlayCount(song.getPlayCount() + 1);
+        if (journal != null) {
+            journal.songPlayed(song);
+        }
+        smartPlaylists.songChanged(song);
+    }
+
     public ObservableList<UserPlaylist> getUserPlaylists() {
         return allPlaylists.stream()
                 .filter(p -> p instanceof UserPlaylist)
@@ -155,9 +400,12 @@ public class MusicLibrary {
     }
 
     public void deletePlaylist(Playlist playlist) {
-        // Only allow deleting user playlists
+        // Only allow deleting user and smart playlists
         if (playlist instanceof UserPlaylist) {
             allPlaylists.remove(playlist);
+        } else if (playlist instanceof SmartPlaylist) {
+            allPlaylists.remove(playlist);
+            smartPlaylists.remove((SmartPlaylist) playlist);
         }
     }
 
@@ -170,6 +418,9 @@ public class MusicLibrary {
             System.err.println("Playlist with name '" + newName + "' already exists.");
             return;
         }
+        if (journal != null) {
+            journal.playlistRenamed(playlist.getName(), newName);
+        }
         playlist.setName(newName);
 
         // Force ListView refresh
@@ -179,110 +430,345 @@ public class MusicLibrary {
         }
     }
 
+    /**
+     * Saves the whole library in the binary snapshot format.
+     * With autosave running, the snapshot file is kept up to date without this.
+     */
     public void saveToFile(File file) {
-        try (FileWriter writer = new FileWriter(file)) {
-            // Save all songs
-            for (Song song : allSongs) {
-                writer.write("SONG_START\n");
-                writer.write("filePath:" + song.getFilePath() + "\n");
-                writer.write("title:" + song.getTitle().replace("\n", " ") + "\n");
-                writer.write("artist:" + song.getArtist().replace("\n", " ") + "\n");
-                writer.write("album:" + song.getAlbum().replace("\n", " ") + "\n");
-                writer.write("genre:" + song.getGenre().replace("\n", " ") + "\n");
-                writer.write("SONG_END\n");
-            }
+        try {
+            LibrarySnapshot.capture(allSongs, scanFolders, getUserPlaylists(), smartPlaylists.getPlaylists(), 0,
+                    catalog.getNextId()).write(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Save user playlists
-            for (UserPlaylist playlist : getUserPlaylists()) {
-                writer.write("PLAYLIST_START:" + playlist.getName().replace("\n", " ") + "\n");
-                for (Song song : playlist.getSongs()) {
-                    writer.write("PLAYLIST_SONG:" + song.getFilePath() + "\n");
-                }
-                writer.write("PLAYLIST_END\n");
+    /**
+     * Starts journaling every change next to the given snapshot file.
+     * Changes are synced in the background about once a second, and the
+     * snapshot is rewritten in the background once the journal has grown.
+     * Call after loadFromFile.
+     */
+    public void startAutosave(File snapshotFile) {
+        if (journal != null) {
+            return;
+        }
+        if (snapshotFile.equals(unreadableFile)) {
+            if (!LibraryJournal.moveAside(snapshotFile, ".unreadable-" + System.currentTimeMillis())) {
+                System.err.println("Not saving changes, so the unreadable library is not overwritten.");
+                return;
             }
+            System.err.println("The library could not be read and was moved aside; starting a new one.");
+            unreadableFile = null;
+        }
+        boolean sameFile = snapshotFile.equals(loadedFrom);
+        try {
+            journal = new LibraryJournal(snapshotFile, sameFile ? loadedGeneration : 0,
+                    () -> Platform.runLater(this::compact));
         } catch (IOException e) {
+            System.err.println("Could not start the library journal; changes will not be saved.");
             e.printStackTrace();
+            return;
+        }
+        this.snapshotFile = snapshotFile;
+        for (UserPlaylist playlist : getUserPlaylists()) {
+            attachMembershipJournaler(playlist);
+        }
+
+        // Fold replayed journals, or a library loaded from elsewhere, into a fresh snapshot
+        if (!sameFile || loadedNeedsCompaction) {
+            compact();
         }
     }
 
-    public void loadFromFile(File file) {
-        if (!file.exists()) return;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            // Clear existing user data, but keep the "All Songs" playlist
-            allSongs.clear();
-            allPlaylists.removeIf(p -> !(p.getName().equals("All Songs")));
-            knownFilePaths.clear();
-            foundGenres.clear();
-
-            Map<String, Song> songMap = new HashMap<>();
-            String line;
-            Map<String, String> songData = new HashMap<>();
-            UserPlaylist currentPlaylist = null;
-
-            while ((line = reader.readLine()) != null) {
-                if (line.equals("SONG_START")) {
-                    songData.clear();
-                } else if (line.startsWith("filePath:")) {
-                    songData.put("filePath", line.substring("filePath:".length()));
-                } else if (line.startsWith("title:")) {
-                    songData.put("title", line.substring("title:".length()));
-                } else if (line.startsWith("artist:")) {
-                    songData.put("artist", line.substring("artist:".length()));
-                } else if (line.startsWith("album:")) {
-                    songData.put("album", line.substring("album:".length()));
-                } else if (line.startsWith("genre:")) {
-                    songData.put("genre", line.substring("genre:".length()));
-                } else if (line.equals("SONG_END")) {
-                    String filePath = songData.getOrDefault("filePath", "");
-                    if (filePath.isEmpty()) {
-                        continue;
-                    }
-                    try {
-                        java.io.File songFile = new java.io.File(java.net.URI.create(filePath));
-                        if (!songFile.exists()) {
-                            System.err.println("File for song not found, skipping: " + filePath);
-                            continue;
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Invalid file path for song, skipping: " + filePath);
-                        continue;
+    /**
+     * Writes and syncs any journaled changes that are still queued.
+     */
+    public void stopAutosave() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private void compact() {
+        if (journal != null) {
+            journal.compact(generation -> LibrarySnapshot.capture(allSongs, scanFolders, getUserPlaylists(),
+                    smartPlaylists.getPlaylists(), generation, catalog.getNextId()));
+        }
+    }
+
+    private void catalogSongChanges(ListChangeListener.Change<? extends Song> change) {
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    catalog.update(change.getList().get(i));
+                }
+                continue;
+            }
+            List<? extends Song> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+            if (change.wasRemoved()) {
+                if (change.getRemovedSize() == catalog.size() && added.isEmpty()) {
+                    catalog.clear(); // The list was cleared
+                    continue;
+                }
+                for (Song song : change.getRemoved()) {
+                    if (!added.contains(song)) {
+                        catalog.remove(song);
                     }
-                    Song newSong = new Song(
-                        filePath,
-                        songData.getOrDefault("title", ""),
-                        songData.getOrDefault("artist", ""),
-                        songData.getOrDefault("album", ""),
-                        songData.getOrDefault("genre", "")
-                    );
-                    allSongs.add(newSong);
-                    knownFilePaths.add(newSong.getFilePath());
-                    songMap.put(newSong.getFilePath(), newSong);
-                    
-                    String genre = newSong.getGenre();
-                    if (genre != null && !genre.isEmpty() && !genre.equals("Unknown Genre") && foundGenres.add(genre)) {
-                        allPlaylists.add(new GenrePlaylist(genre, allSongs));
+                }
+            }
+            for (Song song : added) {
+                // A song replaced by itself has new tags
+                catalog.update(song);
+            }
+        }
+    }
+
+    private void journalSongChanges(ListChangeListener.Change<? extends Song> change) {
+        if (journal == null) {
+            return;
+        }
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue; // Order of allSongs isn't part of the saved state that matters
+            }
+            if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    journal.songPut(change.getList().get(i));
+                }
+                continue;
+            }
+            if (change.wasRemoved()) {
+                List<? extends Song> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+                for (Song song : change.getRemoved()) {
+                    // A song replaced by itself was updated, not removed
+                    if (!added.contains(song)) {
+                        journal.songRemoved(song.getFilePath());
                     }
-                } else if (line.startsWith("PLAYLIST_START:")) {
-                    String name = line.substring("PLAYLIST_START:".length());
-                    currentPlaylist = new UserPlaylist(name);
-                } else if (line.startsWith("PLAYLIST_SONG:")) {
-                    if (currentPlaylist != null) {
-                        String songPath = line.substring("PLAYLIST_SONG:".length());
-                        Song song = songMap.get(songPath);
-                        if (song != null) {
-                            currentPlaylist.addSong(song);
-                        }
+                }
+            }
+            if (change.wasAdded()) {
+                for (Song song : change.getAddedSubList()) {
+                    journal.songPut(song);
+                }
+            }
+        }
+    }
+
+    private void journalPlaylistChanges(ListChangeListener.Change<? extends Playlist> change) {
+        if (journal == null) {
+            return;
+        }
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            List<? extends Playlist> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+            List<? extends Playlist> removed = change.wasRemoved() ? change.getRemoved() : List.of();
+            for (Playlist playlist : removed) {
+                if (playlist instanceof SmartPlaylist && added.stream().noneMatch(p -> p == playlist)) {
+                    journal.playlistDeleted(playlist.getName());
+                }
+                if (playlist instanceof UserPlaylist && added.stream().noneMatch(p -> p == playlist)) {
+                    journal.playlistDeleted(playlist.getName());
+                    ListChangeListener<Song> listener = membershipJournalers.remove(playlist);
+                    if (listener != null) {
+                        playlist.getSongs().removeListener(listener);
                     }
-                } else if (line.equals("PLAYLIST_END")) {
-                    if (currentPlaylist != null) {
-                        allPlaylists.add(currentPlaylist);
-                        currentPlaylist = null;
+                }
+            }
+            for (Playlist playlist : added) {
+                if (playlist instanceof SmartPlaylist && removed.stream().noneMatch(p -> p == playlist)) {
+                    SmartPlaylist smart = (SmartPlaylist) playlist;
+                    journal.smartPlaylistPut(smart.getName(), smart.getQuery());
+                }
+                // A playlist replaced by itself was renamed, which renamePlaylist records
+                if (playlist instanceof UserPlaylist && removed.stream().noneMatch(p -> p == playlist)) {
+                    journal.playlistCreated(playlist.getName());
+                    if (!playlist.getSongs().isEmpty()) {
+                        journal.membersInserted(playlist.getName(), 0, playlist.getSongs());
                     }
+                    attachMembershipJournaler((UserPlaylist) playlist);
                 }
             }
-        } catch (IOException e) {
+        }
+    }
+
+    private void attachMembershipJournaler(UserPlaylist playlist) {
+        if (membershipJournalers.containsKey(playlist)) {
+            return;
+        }
+        ListChangeListener<Song> listener = change -> {
+            if (journal == null) {
+                return;
+            }
+            while (change.next()) {
+                if (change.wasPermutated()) {
+                    journal.membersReplaced(playlist.getName(), playlist.getSongs());
+                    continue;
+                }
+                if (change.wasRemoved()) {
+                    journal.membersRemoved(playlist.getName(), change.getFrom(), change.getRemovedSize());
+                }
+                if (change.wasAdded()) {
+                    journal.membersInserted(playlist.getName(), change.getFrom(), change.getAddedSubList());
+                }
+            }
+        };
+        playlist.getSongs().addListener(listener);
+        membershipJournalers.put(playlist, listener);
+    }
+
+    /**
+     * A saved library that has been read and brought up to date, but not
+     * applied yet. The snapshot is null if the file could not be read.
+     */
+    private static final class PendingLoad {
+        final File file;
+        final LibrarySnapshot snapshot;
+        final boolean needsCompaction;
+
+        PendingLoad(File file, LibrarySnapshot snapshot, boolean needsCompaction) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.needsCompaction = needsCompaction;
+        }
+    }
+
+    /**
+     * Loads a saved library, replacing the current contents.
+     * Reads both the binary snapshot and the older text format.
+     * Songs are trusted as saved; run an AvailabilityChecker afterwards to
+     * find the ones whose files have gone missing.
+     */
+    public void loadFromFile(File file) {
+        PendingLoad pending = readSaved(file);
+        if (pending != null) {
+            apply(pending);
+        }
+    }
+
+    /**
+     * Like loadFromFile, but reads the file on a background thread and only
+     * replaces the current contents on the FX thread once it has been read.
+     * The returned future completes on the FX thread.
+     */
+    public CompletableFuture<Void> loadFromFileAsync(File file) {
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                PendingLoad pending = readSaved(file);
+                Platform.runLater(() -> {
+                    try {
+                        if (pending != null) {
+                            apply(pending);
+                        }
+                        loaded.complete(null);
+                    } catch (RuntimeException e) {
+                        loaded.completeExceptionally(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                Platform.runLater(() -> loaded.completeExceptionally(e));
+            }
+        }, "noiz-library-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return loaded;
+    }
+
+    // Doesn't touch any library state, so it can run on any thread
+    private static PendingLoad readSaved(File file) {
+        if (!file.exists()) return null;
+
+        try {
+            LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+            // Bring the snapshot up to date with changes journaled since it was written
+            boolean needsCompaction = LibraryJournal.hasPendingJournals(file, snapshot.journalGeneration);
+            snapshot = LibraryJournal.replay(file, snapshot);
+            return new PendingLoad(file, snapshot, needsCompaction);
+        } catch (IOException | RuntimeException e) {
+            // Unsupported version, a read error, or a corrupt file
+            System.err.println("Could not read the library: " + file);
             e.printStackTrace();
+            return new PendingLoad(file, null, false);
+        }
+    }
+
+    private void apply(PendingLoad pending) {
+        // Stays set if this fails part way, as well as when the file couldn't be read
+        unreadableFile = pending.file;
+        if (pending.snapshot == null) {
+            return;
+        }
+        LibrarySnapshot snapshot = pending.snapshot;
+        loadedFrom = pending.file;
+        loadedNeedsCompaction = pending.needsCompaction;
+        loadedGeneration = snapshot.journalGeneration;
+
+        // Clear existing user data, but keep the "All Songs" playlist
+        smartPlaylists.clear();
+        allSongs.clear();
+        allPlaylists.removeIf(p -> !(p.getName().equals("All Songs")));
+        genreIndex.reset();
+        songsByPath.clear();
+        pathsByFingerprint.clear();
+        scanFolders.clear();
+
+        // Collected first and published in one change each
+        List<Song> loadedSongs = new ArrayList<>();
+        List<Playlist> loadedPlaylists = new ArrayList<>();
+        for (Song newSong : snapshot.songs) {
+            String filePath = newSong.getFilePath();
+            loadedSongs.add(newSong);
+            songsByPath.put(filePath, newSong);
+            if (newSong.getFingerprint() != 0) {
+                pathsByFingerprint.putIfAbsent(newSong.getFingerprint(), filePath);
+            }
+        }
+
+        scanFolders.addAll(snapshot.scanFolders);
+
+        int maxId = snapshot.songs.stream().mapToInt(Song::getId).max().orElse(-1);
+        Song[] songsById = new Song[maxId + 1];
+        for (Song song : snapshot.songs) {
+            if (song.getId() >= 0) {
+                songsById[song.getId()] = song;
+            }
+        }
+        for (LibrarySnapshot.PlaylistData data : snapshot.playlists) {
+            List<Song> members = new ArrayList<>(data.songIds.length);
+            for (int id : data.songIds) {
+                if (id >= 0 && id < songsById.length) {
+                    members.add(songsById[id]);
+                }
+            }
+            UserPlaylist playlist = new UserPlaylist(data.name);
+            playlist.addSongs(members);
+            loadedPlaylists.add(playlist);
+        }
+
+        allSongs.addAll(loadedSongs);
+        catalog.reserveIds(snapshot.nextSongId);
+        allPlaylists.addAll(newGenrePlaylists());
+        allPlaylists.addAll(loadedPlaylists);
+
+        // Evaluated once against the full library rather than song by song as it loads
+        List<Playlist> loadedSmartPlaylists = new ArrayList<>();
+        for (Map.Entry<String, String> entry : snapshot.smartPlaylists.entrySet()) {
+            try {
+                SmartPlaylist playlist = new SmartPlaylist(entry.getKey(), entry.getValue());
+                smartPlaylists.add(playlist);
+                loadedSmartPlaylists.add(playlist);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping smart playlist '" + entry.getKey() + "': " + e.getMessage());
+            }
         }
+        allPlaylists.addAll(loadedSmartPlaylists);
+        unreadableFile = null;
     }
 }
@@ -0,0 +1,534 @@
+package com.musicplayer.model;
+
+import javafx.collections.ListChangeListener;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Full-text index over title, artist, album and genre.
+ *
+ * Tags are split into lowercase words once, when a song is added or
+ * changed, and each word keeps a postings list of the IDs of the songs that
+ * contain it and in which fields. A query matches songs that have, for
+ * every query word, a word that equals it, starts with it, or is within a
+ * small edit distance of it, so "beatels abb" finds "Abbey Road" by The
+ * Beatles. Candidates for the typo-tolerant part come from a trigram index
+ * over the words.
+ *
+ * Matches are scored by how closely each query word matched and in which
+ * field, title first and genre last, and only the best few are ranked.
+ *
+ * Listens to the song list after the SongCatalog, on the FX thread.
+ * Searches may run on any thread; they hold a read lock while the FX
+ * thread's updates hold the write lock.
+ */
+final class SearchIndex {
+    // Fields a word can be in
+    private static final int TITLE = 1;
+    private static final int ARTIST = 2;
+    private static final int ALBUM = 4;
+    private static final int GENRE = 8;
+
+    // What a query word matching a term is worth, by kind of match
+    private static final float EXACT = 1.0f;
+    private static final float PREFIX = 0.75f;
+    private static final float[] FUZZY = {EXACT, 0.5f, 0.3f}; // By edit distance
+    // Shorter query words are only matched exactly or as a prefix
+    private static final int FUZZY_MIN_LENGTH = 4;
+    private static final int TWO_EDITS_MIN_LENGTH = 7;
+
+    /** IDs of the songs containing one word, in no particular order, with the fields it is in. */
+    private static final class Postings {
+        final String term;
+        final int number; // Position in the trigram index
+        int[] ids = new int[2];
+        byte[] fields = new byte[2];
+        int size;
+
+        Postings(String term, int number) {
+            this.term = term;
+            this.number = number;
+        }
+
+        void add(int id, int fieldMask) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            ids[size] = id;
+            fields[size] = (byte) fieldMask;
+            size++;
+        }
+
+        void setFields(int id, int fieldMask) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    fields[i] = (byte) fieldMask;
+                    return;
+                }
+            }
+        }
+    }
+
+    /** A growable list of term numbers. */
+    private static final class TermList {
+        int[] numbers = new int[4];
+        int size;
+
+        void add(int number) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+            numbers[size++] = number;
+        }
+    }
+
+    private static final Postings[] NO_TERMS = new Postings[0];
+    private static final byte[] NO_FIELDS = new byte[0];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Postings> postingsByTerm = new HashMap<>();
+    // All terms in order, so the ones starting with a prefix are one range.
+    // Rebuilt by the next search after terms were added or dropped.
+    private String[] sortedTerms = new String[0];
+    private volatile boolean termsChanged;
+    // Terms by number, null once dropped, and the numbers of the terms containing each trigram.
+    // Dropped terms stay in the trigram lists; candidates are checked anyway.
+    private final List<Postings> postingsByNumber = new ArrayList<>();
+    private final Map<String, TermList> termsByTrigram = new HashMap<>();
+    // The words each song was indexed under and their fields, by song ID,
+    // so they can be found after its tags change
+    private Postings[][] termsBySongId = new Postings[1024][];
+    private byte[][] fieldsBySongId = new byte[1024][];
+
+    // Removals pending until the end of a change: songs that left the
+    // library, and single words that songs lost when their tags changed
+    private final BitSet removedSongs = new BitSet();
+    private final Map<Postings, List<Integer>> droppedIds = new IdentityHashMap<>();
+    private final Set<Postings> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * The songs matching every word of the query, with the best limit of them
+     * ranked, or null if the query has no words and so matches every song.
+     * If the calling thread is interrupted the search stops early, and the
+     * result should be thrown away.
+     */
+    SearchResult search(String query, int limit) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return null;
+        }
+        if (termsChanged) {
+            lock.writeLock().lock();
+            try {
+                if (termsChanged) {
+                    sortedTerms = postingsByTerm.keySet().toArray(new String[0]);
+                    Arrays.sort(sortedTerms);
+                    termsChanged = false;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.readLock().lock();
+        try {
+            return search(new ArrayList<>(new LinkedHashSet<>(words)), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private SearchResult search(List<String> words, int limit) {
+        float[] scores = null;
+        BitSet result = null;
+        for (String word : words) {
+            if (Thread.currentThread().isInterrupted()) {
+                return new SearchResult(new BitSet(), new int[0]);
+            }
+            float[] wordScores = new float[termsBySongId.length];
+            BitSet matches = new BitSet();
+            scoreWord(word, wordScores, matches);
+            if (result == null) {
+                result = matches;
+                scores = wordScores;
+            } else {
+                result.and(matches);
+                for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+                    scores[id] += wordScores[id];
+                }
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return new SearchResult(result, topIds(result, scores, limit));
+    }
+
+    // Best score each song gets for one query word, over every term the word matches
+    private void scoreWord(String word, float[] scores, BitSet matches) {
+        int first = Arrays.binarySearch(sortedTerms, word);
+        for (int i = first >= 0 ? first : -first - 1; i < sortedTerms.length && sortedTerms[i].startsWith(word); i++) {
+            // The order may be a change behind, in which case some terms are gone
+            Postings postings = postingsByTerm.get(sortedTerms[i]);
+            if (postings != null) {
+                accumulate(postings, sortedTerms[i].length() == word.length() ? EXACT : PREFIX, scores, matches);
+            }
+        }
+        if (word.length() >= FUZZY_MIN_LENGTH) {
+            int maxEdits = word.length() >= TWO_EDITS_MIN_LENGTH ? 2 : 1;
+            for (Postings postings : similarTerms(word, maxEdits)) {
+                if (!postings.term.startsWith(word)) {
+                    accumulate(postings, FUZZY[editDistance(word, postings.term, maxEdits)], scores, matches);
+                }
+            }
+        }
+    }
+
+    private static void accumulate(Postings postings, float quality, float[] scores, BitSet matches) {
+        for (int i = 0; i < postings.size; i++) {
+            int id = postings.ids[i];
+            float score = quality * fieldWeight(postings.fields[i]);
+            if (score > scores[id]) {
+                scores[id] = score;
+            }
+            matches.set(id);
+        }
+    }
+
+    // The best field a term is in decides what the match is worth
+    private static float fieldWeight(int fieldMask) {
+        if ((fieldMask & TITLE) != 0) {
+            return 4;
+        } else if ((fieldMask & ARTIST) != 0) {
+            return 3;
+        } else if ((fieldMask & ALBUM) != 0) {
+            return 2;
+        }
+        return 1;
+    }
+
+    // Highest scores first, ties by ID; picked with a heap of at most limit entries
+    private static int[] topIds(BitSet matches, float[] scores, int limit) {
+        if (limit <= 0 || matches.isEmpty()) {
+            return new int[0];
+        }
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, (a, b) -> {
+            int byScore = Float.compare(scores[a], scores[b]);
+            return byScore != 0 ? byScore : Integer.compare(b, a);
+        });
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            if (best.size() < limit) {
+                best.add(id);
+            } else if (scores[id] > scores[best.peek()]) {
+                best.poll();
+                best.add(id);
+            }
+        }
+        int[] ranked = new int[best.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = best.poll();
+        }
+        return ranked;
+    }
+
+    // Terms within maxEdits of the word. A term that close shares all but a
+    // few of the word's trigrams (a swap of two letters breaks up to four),
+    // so only terms sharing enough are checked.
+    private List<Postings> similarTerms(String word, int maxEdits) {
+        List<String> grams = trigrams(word);
+        int minShared = grams.size() - 4 * maxEdits;
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String gram : grams) {
+            TermList terms = termsByTrigram.get(gram);
+            if (terms != null) {
+                for (int i = 0; i < terms.size; i++) {
+                    shared.merge(terms.numbers[i], 1, Integer::sum);
+                }
+            }
+        }
+        List<Postings> similar = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+            if (entry.getValue() < minShared) {
+                continue;
+            }
+            Postings postings = postingsByNumber.get(entry.getKey());
+            if (postings != null && editDistance(word, postings.term, maxEdits) <= maxEdits) {
+                similar.add(postings);
+            }
+        }
+        return similar;
+    }
+
+    // Trigrams of the word with its start and end marked, so short words have some
+    private static List<String> trigrams(String word) {
+        String marked = "^" + word + "$";
+        List<String> grams = new ArrayList<>(marked.length() - 2);
+        for (int i = 0; i + 3 <= marked.length(); i++) {
+            grams.add(marked.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * Edit distance counting a swap of two neighbouring letters as one edit,
+     * or maxEdits + 1 if it is more than maxEdits.
+     */
+    static int editDistance(String a, String b, int maxEdits) {
+        if (Math.abs(a.length() - b.length()) > maxEdits) {
+            return maxEdits + 1;
+        }
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        int previousMin = 0;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            // A swap reaches back two rows, so both have to be too far
+            if (rowMin > maxEdits && previousMin > maxEdits) {
+                return maxEdits + 1;
+            }
+            previousMin = rowMin;
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], maxEdits + 1);
+    }
+
+    int termCount() {
+        lock.readLock().lock();
+        try {
+            return postingsByTerm.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void onSongsChanged(ListChangeListener.Change<? extends Song> change) {
+        lock.writeLock().lock();
+        try {
+            applyChange(change);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void applyChange(ListChangeListener.Change<? extends Song> change) {
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    index(change.getList().get(i));
+                }
+                continue;
+            }
+            List<? extends Song> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+            if (change.wasRemoved() && added.isEmpty() && change.getList().isEmpty()) {
+                postingsByTerm.clear();
+                postingsByNumber.clear();
+                termsByTrigram.clear();
+                Arrays.fill(termsBySongId, null);
+                Arrays.fill(fieldsBySongId, null);
+                removedSongs.clear();
+                droppedIds.clear();
+                touched.clear();
+                termsChanged = true;
+                continue;
+            }
+            for (Song song : change.getRemoved()) {
+                if (!added.contains(song) && song.getId() >= 0) {
+                    removedSongs.set(song.getId());
+                    Collections.addAll(touched, termsOf(song.getId()));
+                }
+            }
+            for (Song song : added) {
+                index(song);
+            }
+        }
+        applyRemovals();
+    }
+
+    private void index(Song song) {
+        int id = song.getId();
+        Map<String, Integer> words = new LinkedHashMap<>();
+        addWords(words, song.getTitle(), TITLE);
+        addWords(words, song.getArtist(), ARTIST);
+        addWords(words, song.getAlbum(), ALBUM);
+        addWords(words, song.getGenre(), GENRE);
+
+        // A song removed earlier in this change and added back is still
+        // listed under its old words
+        removedSongs.clear(id);
+        Postings[] old = termsOf(id);
+        byte[] oldFields = fieldsOf(id);
+        Postings[] current = new Postings[words.size()];
+        byte[] currentFields = new byte[words.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : words.entrySet()) {
+            Postings postings = postingsByTerm.get(entry.getKey());
+            if (postings == null) {
+                postings = newPostings(entry.getKey());
+            }
+            int fieldMask = entry.getValue();
+            current[i] = postings;
+            currentFields[i] = (byte) fieldMask;
+            i++;
+            int was = indexOf(old, postings);
+            if (was < 0) {
+                postings.add(id, fieldMask);
+            } else if (oldFields[was] != fieldMask) {
+                postings.setFields(id, fieldMask); // Same word, moved between fields
+            }
+        }
+        for (Postings postings : old) {
+            if (indexOf(current, postings) < 0) {
+                droppedIds.computeIfAbsent(postings, p -> new ArrayList<>()).add(id);
+                touched.add(postings);
+            }
+        }
+        setTerms(id, current, currentFields);
+    }
+
+    private static void addWords(Map<String, Integer> words, String text, int field) {
+        for (String word : tokenize(text)) {
+            words.merge(word, field, (a, b) -> a | b);
+        }
+    }
+
+    private Postings newPostings(String term) {
+        Postings postings = new Postings(term, postingsByNumber.size());
+        postingsByTerm.put(term, postings);
+        postingsByNumber.add(postings);
+        for (String gram : new LinkedHashSet<>(trigrams(term))) {
+            termsByTrigram.computeIfAbsent(gram, g -> new TermList()).add(postings.number);
+        }
+        termsChanged = true;
+        return postings;
+    }
+
+    // Compacts each affected postings list in one pass
+    private void applyRemovals() {
+        for (Postings postings : touched) {
+            List<Integer> dropped = droppedIds.get(postings);
+            int[] sortedDropped = dropped != null ? dropped.stream().mapToInt(Integer::intValue).sorted().toArray() : null;
+            int kept = 0;
+            for (int i = 0; i < postings.size; i++) {
+                int id = postings.ids[i];
+                if (!removedSongs.get(id) && (sortedDropped == null || Arrays.binarySearch(sortedDropped, id) < 0)) {
+                    postings.ids[kept] = id;
+                    postings.fields[kept] = postings.fields[i];
+                    kept++;
+                }
+            }
+            postings.size = kept;
+            if (kept == 0) {
+                postingsByTerm.remove(postings.term);
+                postingsByNumber.set(postings.number, null);
+                termsChanged = true;
+            }
+        }
+        for (int id = removedSongs.nextSetBit(0); id >= 0; id = removedSongs.nextSetBit(id + 1)) {
+            setTerms(id, null, null);
+        }
+        removedSongs.clear();
+        droppedIds.clear();
+        touched.clear();
+    }
+
+    private static int indexOf(Postings[] terms, Postings postings) {
+        for (int i = 0; i < terms.length; i++) {
+            if (terms[i] == postings) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Postings[] termsOf(int id) {
+        if (id < 0 || id >= termsBySongId.length || termsBySongId[id] == null) {
+            return NO_TERMS;
+        }
+        return termsBySongId[id];
+    }
+
+    private byte[] fieldsOf(int id) {
+        if (id < 0 || id >= fieldsBySongId.length || fieldsBySongId[id] == null) {
+            return NO_FIELDS;
+        }
+        return fieldsBySongId[id];
+    }
+
+    private void setTerms(int id, Postings[] terms, byte[] fields) {
+        if (id < 0) {
+            return;
+        }
+        if (id >= termsBySongId.length) {
+            if (terms == null) {
+                return;
+            }
+            int length = Math.max(id + 1, termsBySongId.length * 2);
+            termsBySongId = Arrays.copyOf(termsBySongId, length);
+            fieldsBySongId = Arrays.copyOf(fieldsBySongId, length);
+        }
+        termsBySongId[id] = terms;
+        fieldsBySongId[id] = fields;
+    }
+
+    /**
+     * Splits text into lowercase words of letters and digits, with accents
+     * removed, so accented and plain spellings of a word are the same word.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return words;
+        }
+        String folded = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) {
+                folded = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+                break;
+            }
+        }
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(folded.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
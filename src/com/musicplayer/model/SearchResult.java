@@ -0,0 +1,58 @@
+package com.musicplayer.model;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The songs matching a search: all of them by ID, and the best few in
+ * ranked order. Songs beyond the ranked ones match too, but weren't ranked.
+ */
+public final class SearchResult {
+    private final BitSet matches;
+    private final int[] rankedIds;
+    private Map<Integer, Integer> ranks; // Built on first use
+
+    SearchResult(BitSet matches, int[] rankedIds) {
+        this.matches = matches;
+        this.rankedIds = rankedIds;
+    }
+
+    public boolean matches(Song song) {
+        return song.getId() >= 0 && matches.get(song.getId());
+    }
+
+    // The matching song IDs, not copied; don't change them
+    BitSet ids() {
+        return matches;
+    }
+
+    public int getMatchCount() {
+        return matches.cardinality();
+    }
+
+    /** IDs of the best matches, best first. */
+    public int[] getRankedIds() {
+        return rankedIds.clone();
+    }
+
+    /**
+     * Position of the song in the ranking, 0 for the best match, or
+     * Integer.MAX_VALUE if it wasn't ranked.
+     */
+    public int rankOf(Song song) {
+        if (ranks == null) {
+            Map<Integer, Integer> positions = new HashMap<>();
+            for (int i = 0; i < rankedIds.length; i++) {
+                positions.put(rankedIds[i], i);
+            }
+            ranks = positions;
+        }
+        return ranks.getOrDefault(song.getId(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d matches, %d ranked", getMatchCount(), rankedIds.length);
+    }
+}
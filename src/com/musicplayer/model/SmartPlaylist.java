@@ -0,0 +1,327 @@
+package com.musicplayer.model;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A playlist defined by rules instead of by hand, kept up to date as the
+ * library changes.
+ *
+ * The definition is a query, which is also how it is saved. Terms are
+ * separated by spaces and must all match; OR separates alternatives:
+ *
+ *   artist:"Miles Davis"   album:Kind   genre:Jazz,Blues
+ *   added>2024-01-31       plays>5
+ *   sort:title|artist|album|added|plays  (prefix with - for descending)
+ *   limit:50
+ */
+public class SmartPlaylist implements Playlist {
+    public enum SortKey { TITLE, ARTIST, ALBUM, ADDED, PLAYS }
+
+    private final String name;
+    private final String query;
+    private final SmartRule rule;
+    private final SortKey sortKey;
+    private final boolean descending;
+    private final int limit;
+
+    // All matching songs in order, each with its sort key as it was when the
+    // song was placed, so it can still be found after its tags change.
+    // The visible list is the first limit of them, edited in step.
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Integer, Entry> entriesById = new HashMap<>();
+    private final SongList songs = new SongList();
+    private final ObservableList<Song> readOnlySongs = FXCollections.unmodifiableObservableList(songs);
+    private boolean editing; // Visible list edits since the last publish() are grouped in one change
+
+    private static final class Entry {
+        final Song song;
+        final int id;
+        final long prefix;
+        final byte[] key; // Rest of a tag's collation key, or null for numbers
+
+        Entry(Song song, byte[] key, long prefix) {
+            this.song = song;
+            this.id = song.getId();
+            this.key = key;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * Creates a smart playlist from a query.
+     * Throws IllegalArgumentException if the query can't be understood.
+     */
+    public SmartPlaylist(String name, String query) {
+        this.name = name;
+        this.query = query.trim();
+
+        List<SmartRule> alternatives = new ArrayList<>();
+        List<SmartRule> terms = new ArrayList<>();
+        SortKey sortKey = SortKey.ADDED;
+        boolean descending = false;
+        int limit = 0;
+        for (String token : tokenize(this.query)) {
+            if (token.equals("OR")) {
+                alternatives.add(SmartRule.allOf(terms));
+                terms = new ArrayList<>();
+            } else if (token.startsWith("artist:")) {
+                terms.add(SmartRule.artistIs(valueOf(token, "artist:")));
+            } else if (token.startsWith("album:")) {
+                terms.add(SmartRule.albumIs(valueOf(token, "album:")));
+            } else if (token.startsWith("genre:")) {
+                terms.add(SmartRule.genreIn(Arrays.asList(valueOf(token, "genre:").split(","))));
+            } else if (token.startsWith("added>")) {
+                terms.add(SmartRule.addedAfter(parseDate(valueOf(token, "added>"))));
+            } else if (token.startsWith("plays>")) {
+                terms.add(SmartRule.playedMoreThan(parseNumber(valueOf(token, "plays>"))));
+            } else if (token.startsWith("limit:")) {
+                limit = parseNumber(valueOf(token, "limit:"));
+            } else if (token.startsWith("sort:")) {
+                String key = valueOf(token, "sort:");
+                descending = key.startsWith("-");
+                try {
+                    sortKey = SortKey.valueOf(key.substring(descending ? 1 : 0).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown sort order: " + key);
+                }
+            } else {
+                throw new IllegalArgumentException("Don't know what to do with: " + token);
+            }
+        }
+        alternatives.add(SmartRule.allOf(terms));
+        this.rule = alternatives.size() == 1 ? alternatives.get(0) : SmartRule.anyOf(alternatives);
+        this.sortKey = sortKey;
+        this.descending = descending;
+        this.limit = limit;
+    }
+
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                token.append(c);
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Missing closing quote");
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static String valueOf(String token, String prefix) {
+        String value = token.substring(prefix.length());
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Missing value after " + prefix);
+        }
+        return value;
+    }
+
+    private static long parseDate(String value) {
+        try {
+            return LocalDate.parse(value).plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a date (yyyy-mm-dd): " + value);
+        }
+    }
+
+    private static int parseNumber(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    // --- Maintenance, driven by the library ---
+
+    /**
+     * Re-checks a song that was added or changed, moving it to its new place.
+     * Returns true if it was or is a match; call publish() afterwards.
+     */
+    boolean update(Song song) {
+        boolean isMatch = rule.matches(song);
+        Entry old = entriesById.get(song.getId());
+        if (old != null && isMatch) {
+            Entry entry = entryOf(song);
+            if (compare(old, entry) == 0) {
+                return false; // Still a match, and still in the same place
+            }
+        }
+        boolean wasMatch = take(song.getId());
+        if (isMatch) {
+            place(song);
+        }
+        return wasMatch || isMatch;
+    }
+
+    /** Drops a song that left the library. Returns true if it was a match; call publish() afterwards. */
+    boolean remove(Song song) {
+        return take(song.getId());
+    }
+
+    /** Evaluates the rules against every song, e.g. when the playlist is created. */
+    void rebuild(SongCatalog catalog) {
+        entries.clear();
+        entriesById.clear();
+        BitSet ids = catalog.ids();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            Song song = catalog.get(id);
+            if (rule.matches(song)) {
+                Entry entry = entryOf(song);
+                entries.add(entry);
+                entriesById.put(id, entry);
+            }
+        }
+        entries.sort(this::compare);
+        List<Song> visible = new ArrayList<>(visibleCount());
+        for (int i = 0; i < visibleCount(); i++) {
+            visible.add(entries.get(i).song);
+        }
+        publish();
+        songs.setAll(visible);
+    }
+
+    /** Lets listeners see the edits since the last publish, as one change. */
+    void publish() {
+        if (editing) {
+            editing = false;
+            songs.endEdits();
+        }
+    }
+
+    // Removes a song from the matches, and from the visible list if it was shown
+    private boolean take(int id) {
+        Entry entry = entriesById.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        int index = Collections.binarySearch(entries, entry, this::compare);
+        entries.remove(index);
+        if (index < songs.size()) {
+            edit();
+            songs.remove(index);
+            if (limit > 0 && entries.size() >= limit) {
+                songs.add(limit - 1, entries.get(limit - 1).song); // The next best moves up
+            }
+        }
+        return true;
+    }
+
+    // Adds a song to the matches in sort order, and to the visible list if it makes the cut
+    private void place(Song song) {
+        Entry entry = entryOf(song);
+        int index = -Collections.binarySearch(entries, entry, this::compare) - 1;
+        entries.add(index, entry);
+        entriesById.put(entry.id, entry);
+        if (limit <= 0 || index < limit) {
+            edit();
+            songs.add(index, song);
+            if (limit > 0 && songs.size() > limit) {
+                songs.remove(limit); // Pushed out by the new one
+            }
+        }
+    }
+
+    private void edit() {
+        if (!editing) {
+            editing = true;
+            songs.beginEdits();
+        }
+    }
+
+    private int visibleCount() {
+        return limit > 0 ? Math.min(limit, entries.size()) : entries.size();
+    }
+
+    private Entry entryOf(Song song) {
+        switch (sortKey) {
+            // The key first: asking for it is what sets the prefix
+            case TITLE: return new Entry(song, song.titleSortKey(), song.titleSortPrefix());
+            case ARTIST: return new Entry(song, song.artistSortKey(), song.artistSortPrefix());
+            case ALBUM: return new Entry(song, song.albumSortKey(), song.albumSortPrefix());
+            // Flipping the sign bit makes unsigned comparison order signed numbers
+            case PLAYS: return new Entry(song, null, song.getPlayCount() ^ Long.MIN_VALUE);
+            default: return new Entry(song, null, song.getAddedAt() ^ Long.MIN_VALUE);
+        }
+    }
+
+    // Same order as SortKeys for tags; ties in ID order, so the list doesn't shuffle between updates
+    private int compare(Entry a, Entry b) {
+        int order = Long.compareUnsigned(a.prefix, b.prefix);
+        if (order == 0 && a.key != b.key && a.key != null) {
+            order = Arrays.compareUnsigned(a.key, b.key);
+        }
+        if (descending) {
+            order = -order;
+        }
+        return order != 0 ? order : Integer.compare(a.id, b.id);
+    }
+
+    // --- Accessors ---
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /** The definition, as entered and as saved. */
+    public String getQuery() {
+        return query;
+    }
+
+    public SmartRule getRule() {
+        return rule;
+    }
+
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /** Maximum number of songs shown, 0 for no limit. */
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public ObservableList<Song> getSongs() {
+        return readOnlySongs;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
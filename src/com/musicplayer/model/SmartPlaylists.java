@@ -0,0 +1,251 @@
+package com.musicplayer.model;
+
+import javafx.collections.ListChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keeps the library's smart playlists up to date.
+ *
+ * Each playlist is registered under the index terms its rules require (an
+ * artist, album or genre), so a changed song is only checked against the
+ * playlists registered under its own terms, before and after the change.
+ * Playlists that only set a bound, like "played more than 5 times", are
+ * kept by threshold, so a song is only checked against those it was or is
+ * above. The rest are checked for every changed song.
+ *
+ * Listens to the song list after the SongCatalog. Only use it on the FX thread.
+ */
+final class SmartPlaylists {
+    private static final int TERMS_PER_SONG = 3;
+    private static final SmartRule.Stat[] STATS = SmartRule.Stat.values();
+    private static final long NO_STAT = Long.MIN_VALUE;
+
+    private final SongCatalog catalog;
+    private final List<SmartPlaylist> playlists = new ArrayList<>();
+    private final Map<Integer, List<SmartPlaylist>> playlistsByTerm = new HashMap<>();
+    private final Map<SmartRule.Stat, TreeMap<Long, List<SmartPlaylist>>> playlistsByBound = new EnumMap<>(SmartRule.Stat.class);
+    private final List<SmartPlaylist> unindexed = new ArrayList<>();
+
+    // Terms are numbered, and each song's terms are kept by song ID, so the
+    // playlists a song was in can be found after its tags have changed
+    private final Map<String, Integer> termCodes = new HashMap<>();
+    private int[] termsBySongId = new int[0];
+    // Likewise each song's stats, so a bound it has dropped below is still found
+    private long[] statsBySongId = new long[0];
+
+    SmartPlaylists(SongCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    List<SmartPlaylist> getPlaylists() {
+        return Collections.unmodifiableList(playlists);
+    }
+
+    void add(SmartPlaylist playlist) {
+        if (playlists.isEmpty()) {
+            indexAllSongs();
+        }
+        playlists.add(playlist);
+        Set<String> terms = playlist.getRule().terms();
+        SmartRule.Bound bound = playlist.getRule().bound();
+        if (terms == null && bound != null) {
+            playlistsByBound.computeIfAbsent(bound.stat, stat -> new TreeMap<>())
+                    .computeIfAbsent(bound.threshold, threshold -> new ArrayList<>()).add(playlist);
+        } else if (terms == null) {
+            unindexed.add(playlist);
+        } else {
+            for (String term : terms) {
+                playlistsByTerm.computeIfAbsent(termCode(term), code -> new ArrayList<>()).add(playlist);
+            }
+        }
+        playlist.rebuild(catalog);
+    }
+
+    void remove(SmartPlaylist playlist) {
+        if (!playlists.remove(playlist)) {
+            return;
+        }
+        unindexed.remove(playlist);
+        for (List<SmartPlaylist> registered : playlistsByTerm.values()) {
+            registered.remove(playlist);
+        }
+        for (TreeMap<Long, List<SmartPlaylist>> byThreshold : playlistsByBound.values()) {
+            byThreshold.values().removeIf(registered -> registered.remove(playlist) && registered.isEmpty());
+        }
+        if (playlists.isEmpty()) {
+            // Nothing to keep up to date until the next one is added
+            playlistsByTerm.clear();
+            playlistsByBound.clear();
+            termCodes.clear();
+            termsBySongId = new int[0];
+            statsBySongId = new long[0];
+        }
+    }
+
+    void clear() {
+        for (SmartPlaylist playlist : new ArrayList<>(playlists)) {
+            remove(playlist);
+        }
+    }
+
+    /** Re-checks a song whose play count or other stats changed. */
+    void songChanged(Song song) {
+        if (playlists.isEmpty() || !catalog.contains(song)) {
+            return;
+        }
+        Set<SmartPlaylist> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        update(song, affected);
+        publish(affected);
+    }
+
+    void onSongsChanged(ListChangeListener.Change<? extends Song> change) {
+        if (playlists.isEmpty()) {
+            return;
+        }
+        Set<SmartPlaylist> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    update(change.getList().get(i), affected);
+                }
+                continue;
+            }
+            List<? extends Song> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+            for (Song song : change.getRemoved()) {
+                if (!added.contains(song)) {
+                    for (SmartPlaylist playlist : candidates(song.getId(), null, null)) {
+                        if (playlist.remove(song)) {
+                            affected.add(playlist);
+                        }
+                    }
+                    setTerms(song.getId(), null);
+                    setStats(song.getId(), null);
+                }
+            }
+            for (Song song : added) {
+                update(song, affected);
+            }
+        }
+        publish(affected);
+    }
+
+    private void update(Song song, Set<SmartPlaylist> affected) {
+        int[] terms = termCodesOf(song);
+        long[] stats = statsOf(song);
+        for (SmartPlaylist playlist : candidates(song.getId(), terms, stats)) {
+            if (playlist.update(song)) {
+                affected.add(playlist);
+            }
+        }
+        setTerms(song.getId(), terms);
+        setStats(song.getId(), stats);
+    }
+
+    private void publish(Set<SmartPlaylist> affected) {
+        for (SmartPlaylist playlist : affected) {
+            playlist.publish();
+        }
+    }
+
+    // Playlists registered under the song's previous terms or the given new
+    // ones, or with a bound below its previous or new stats
+    private Set<SmartPlaylist> candidates(int songId, int[] newTerms, long[] newStats) {
+        Set<SmartPlaylist> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        candidates.addAll(unindexed);
+        int base = songId * TERMS_PER_SONG;
+        for (int i = 0; i < TERMS_PER_SONG; i++) {
+            if (base + i < termsBySongId.length && termsBySongId[base + i] >= 0) {
+                candidates.addAll(playlistsByTerm.getOrDefault(termsBySongId[base + i], List.of()));
+            }
+            if (newTerms != null) {
+                candidates.addAll(playlistsByTerm.getOrDefault(newTerms[i], List.of()));
+            }
+        }
+        for (Map.Entry<SmartRule.Stat, TreeMap<Long, List<SmartPlaylist>>> byStat : playlistsByBound.entrySet()) {
+            int i = byStat.getKey().ordinal();
+            long old = songId * STATS.length + i < statsBySongId.length ? statsBySongId[songId * STATS.length + i] : NO_STAT;
+            long highest = Math.max(old, newStats != null ? newStats[i] : NO_STAT);
+            if (highest != NO_STAT) {
+                for (List<SmartPlaylist> registered : byStat.getValue().headMap(highest, false).values()) {
+                    candidates.addAll(registered);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private void indexAllSongs() {
+        termsBySongId = new int[0];
+        statsBySongId = new long[0];
+        BitSet ids = catalog.ids();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            Song song = catalog.get(id);
+            setTerms(id, termCodesOf(song));
+            setStats(id, statsOf(song));
+        }
+    }
+
+    private static long[] statsOf(Song song) {
+        long[] stats = new long[STATS.length];
+        for (SmartRule.Stat stat : STATS) {
+            stats[stat.ordinal()] = stat.of(song);
+        }
+        return stats;
+    }
+
+    private int[] termCodesOf(Song song) {
+        String[] terms = SmartRule.termsOf(song);
+        int[] codes = new int[TERMS_PER_SONG];
+        for (int i = 0; i < TERMS_PER_SONG; i++) {
+            codes[i] = termCode(terms[i]);
+        }
+        return codes;
+    }
+
+    private int termCode(String term) {
+        return termCodes.computeIfAbsent(term, t -> termCodes.size());
+    }
+
+    private void setTerms(int songId, int[] terms) {
+        int base = songId * TERMS_PER_SONG;
+        if (base + TERMS_PER_SONG > termsBySongId.length) {
+            if (terms == null) {
+                return;
+            }
+            int oldLength = termsBySongId.length;
+            termsBySongId = Arrays.copyOf(termsBySongId, Math.max(base + TERMS_PER_SONG, oldLength * 2));
+            Arrays.fill(termsBySongId, oldLength, termsBySongId.length, -1);
+        }
+        for (int i = 0; i < TERMS_PER_SONG; i++) {
+            termsBySongId[base + i] = terms != null ? terms[i] : -1;
+        }
+    }
+
+    private void setStats(int songId, long[] stats) {
+        int base = songId * STATS.length;
+        if (base + STATS.length > statsBySongId.length) {
+            if (stats == null) {
+                return;
+            }
+            int oldLength = statsBySongId.length;
+            statsBySongId = Arrays.copyOf(statsBySongId, Math.max(base + STATS.length, oldLength * 2));
+            Arrays.fill(statsBySongId, oldLength, statsBySongId.length, NO_STAT);
+        }
+        for (int i = 0; i < STATS.length; i++) {
+            statsBySongId[base + i] = stats != null ? stats[i] : NO_STAT;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.musicplayer.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A condition on a song, used to define smart playlists.
+ * Rules combine with allOf and anyOf.
+ *
+ * Rules on artist, album or genre also name the index terms a song must have
+ * to match, so a library change only needs to be checked against the smart
+ * playlists that could be affected by it. Rules on when a song was added or
+ * how often it was played name a bound instead, for the same purpose.
+ */
+public abstract class SmartRule {
+    /** A number a song has, that rules can set a lower bound on. */
+    enum Stat {
+        ADDED { @Override long of(Song song) { return song.getAddedAt(); } },
+        PLAYS { @Override long of(Song song) { return song.getPlayCount(); } };
+
+        abstract long of(Song song);
+    }
+
+    /** A matching song's stat is above the threshold. */
+    static final class Bound {
+        final Stat stat;
+        final long threshold;
+
+        Bound(Stat stat, long threshold) {
+            this.stat = stat;
+            this.threshold = threshold;
+        }
+    }
+
+    public abstract boolean matches(Song song);
+
+    /**
+     * Terms of which a matching song must have at least one, or null if any
+     * song could match. See termsOf.
+     */
+    abstract Set<String> terms();
+
+    /** A bound every matching song is within, or null if there is none. */
+    Bound bound() {
+        return null;
+    }
+
+    // --- Index terms ---
+
+    static String artistTerm(String artist) {
+        return "artist:" + normalize(artist);
+    }
+
+    static String albumTerm(String album) {
+        return "album:" + normalize(album);
+    }
+
+    static String genreTerm(String genre) {
+        return "genre:" + normalize(genre);
+    }
+
+    /** The index terms a song has. */
+    static String[] termsOf(Song song) {
+        return new String[] { artistTerm(song.getArtist()), albumTerm(song.getAlbum()), genreTerm(song.getGenre()) };
+    }
+
+    private static String normalize(String value) {
+        return StringDictionary.normalize(value);
+    }
+
+    // --- Rules ---
+
+    /** Artist equals the value, ignoring case and extra whitespace. */
+    public static SmartRule artistIs(String artist) {
+        String wanted = normalize(artist);
+        return new SmartRule() {
+            @Override public boolean matches(Song song) { return normalize(song.getArtist()).equals(wanted); }
+            @Override Set<String> terms() { return Set.of(artistTerm(artist)); }
+        };
+    }
+
+    /** Album equals the value, ignoring case and extra whitespace. */
+    public static SmartRule albumIs(String album) {
+        String wanted = normalize(album);
+        return new SmartRule() {
+            @Override public boolean matches(Song song) { return normalize(song.getAlbum()).equals(wanted); }
+            @Override Set<String> terms() { return Set.of(albumTerm(album)); }
+        };
+    }
+
+    /** Genre is one of the values, ignoring case and extra whitespace. */
+    public static SmartRule genreIn(Collection<String> genres) {
+        Set<String> wanted = genres.stream().map(SmartRule::normalize).collect(Collectors.toSet());
+        return new SmartRule() {
+            @Override public boolean matches(Song song) { return wanted.contains(normalize(song.getGenre())); }
+            @Override Set<String> terms() { return genres.stream().map(SmartRule::genreTerm).collect(Collectors.toSet()); }
+        };
+    }
+
+    /** Added to the library after the given time, in milliseconds since the epoch. */
+    public static SmartRule addedAfter(long millis) {
+        return new SmartRule() {
+            @Override public boolean matches(Song song) { return song.getAddedAt() > millis; }
+            @Override Set<String> terms() { return null; }
+            @Override Bound bound() { return new Bound(Stat.ADDED, millis); }
+        };
+    }
+
+    /** Played to the end more than the given number of times. */
+    public static SmartRule playedMoreThan(int plays) {
+        return new SmartRule() {
+            @Override public boolean matches(Song song) { return song.getPlayCount() > plays; }
+            @Override Set<String> terms() { return null; }
+            @Override Bound bound() { return new Bound(Stat.PLAYS, plays); }
+        };
+    }
+
+    public static SmartRule allOf(List<SmartRule> rules) {
+        List<SmartRule> all = new ArrayList<>(rules);
+        return new SmartRule() {
+            @Override
+            public boolean matches(Song song) {
+                for (SmartRule rule : all) {
+                    if (!rule.matches(song)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            Set<String> terms() {
+                // A match has to satisfy every rule, so the narrowest one's terms will do
+                Set<String> narrowest = null;
+                for (SmartRule rule : all) {
+                    Set<String> terms = rule.terms();
+                    if (terms != null && (narrowest == null || terms.size() < narrowest.size())) {
+                        narrowest = terms;
+                    }
+                }
+                return narrowest;
+            }
+
+            @Override
+            Bound bound() {
+                for (SmartRule rule : all) {
+                    Bound bound = rule.bound();
+                    if (bound != null) {
+                        return bound;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    public static SmartRule anyOf(List<SmartRule> rules) {
+        List<SmartRule> any = new ArrayList<>(rules);
+        return new SmartRule() {
+            @Override
+            public boolean matches(Song song) {
+                for (SmartRule rule : any) {
+                    if (rule.matches(song)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            Set<String> terms() {
+                Set<String> union = new HashSet<>();
+                for (SmartRule rule : any) {
+                    Set<String> terms = rule.terms();
+                    if (terms == null) {
+                        return null; // That alternative could match any song
+                    }
+                    union.addAll(terms);
+                }
+                return union;
+            }
+        };
+    }
+}
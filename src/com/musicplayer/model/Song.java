@@ -1,77 +1,265 @@
 package com.musicplayer.model;
 
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
 /**
  * Data model for a song.
- * Uses JavaFX properties for UI binding.
+ * Tags are kept as plain strings; the JavaFX properties for UI binding are
+ * only created when something asks for them, so songs that are never shown
+ * stay small. Artist, album and genre are shared through a dictionary since
+ * they repeat across many songs. The library keeps one Song per file and
+ * finds it by path or ID, so songs are compared by identity.
  */
 public class Song {
-    private final StringProperty title;
-    private final StringProperty artist;
-    private final StringProperty album;
-    private final StringProperty genre;
-    private final String filePath; // The actual path to the file
+    private static final StringDictionary TAGS = new StringDictionary();
+
+    private String title;
+    private String artist;
+    private String album;
+    private String genre;
+    // Created on first use, after which they hold the current values
+    private StringProperty titleProperty;
+    private StringProperty artistProperty;
+    private StringProperty albumProperty;
+    private StringProperty genreProperty;
+    private volatile String filePath; // The actual path to the file; changes if the file is moved
+    // File fingerprint from the last scan, used to skip unchanged files on rescan
+    private volatile long lastModified;
+    private volatile long fileSize;
+    // Sampled content hash for duplicate detection, 0 if not computed yet
+    private volatile long fingerprint;
+    // False if the file couldn't be found the last time it was checked
+    private volatile boolean available = true;
+    private SimpleBooleanProperty availableProperty; // Created when the UI asks for it
+    // Stable ID, saved with the library and used by playlists; -1 until the song joins a library
+    private int id = -1;
+    // When the song joined the library (0 if unknown), and how often it was played to the end
+    private long addedAt;
+    private int playCount;
+    // Collation keys for SortKeys, computed when the song is first sorted.
+    // A short prefix of each is also kept as a number, which decides most
+    // comparisons without following a pointer.
+    private byte[] titleSortKey;
+    private byte[] artistSortKey;
+    private byte[] albumSortKey;
+    private byte[] genreSortKey;
+    private long titleSortPrefix;
+    private long artistSortPrefix;
+    private long albumSortPrefix;
+    private long genreSortPrefix;
 
     public Song(String filePath, String title, String artist, String album, String genre) {
+        this(filePath, title, artist, album, genre, 0, 0, 0);
+    }
+
+    public Song(String filePath, String title, String artist, String album, String genre,
+                long lastModified, long fileSize, long fingerprint) {
         this.filePath = filePath;
-        this.title = new SimpleStringProperty(title.isEmpty() ? "Unknown Title" : title);
-        this.artist = new SimpleStringProperty(artist.isEmpty() ? "Unknown Artist" : artist);
-        this.album = new SimpleStringProperty(album.isEmpty() ? "Unknown Album" : album);
-        this.genre = new SimpleStringProperty(genre.isEmpty() ? "Unknown Genre" : genre);
+        this.title = title.isEmpty() ? "Unknown Title" : title;
+        this.artist = artist.isEmpty() ? "Unknown Artist" : TAGS.intern(artist);
+        this.album = album.isEmpty() ? "Unknown Album" : TAGS.intern(album);
+        this.genre = genre.isEmpty() ? "Unknown Genre" : TAGS.intern(genre);
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Copies tags and file fingerprint from a freshly scanned copy of this song.
+     * Must be called on the FX thread since the properties may be bound to the UI.
+     */
+    void updateFrom(Song scanned) {
+        title = scanned.title;
+        artist = scanned.artist;
+        album = scanned.album;
+        genre = scanned.genre;
+        if (titleProperty != null) titleProperty.set(title);
+        if (artistProperty != null) artistProperty.set(artist);
+        if (albumProperty != null) albumProperty.set(album);
+        if (genreProperty != null) genreProperty.set(genre);
+        titleSortKey = artistSortKey = albumSortKey = genreSortKey = null;
+        lastModified = scanned.lastModified;
+        fileSize = scanned.fileSize;
+        fingerprint = scanned.fingerprint;
+        setAvailable(true); // The scanner just read it
+    }
+
+    /**
+     * True if the file still has the modification time and size seen at the last scan,
+     * and nothing needs to be read from it again.
+     */
+    public boolean matchesFile(long lastModified, long fileSize) {
+        return this.lastModified == lastModified && this.fileSize == fileSize && fingerprint != 0;
     }
 
-    // Properties for UI binding
+    // Properties for UI binding, created on first use. Only call these on the FX thread.
     public StringProperty titleProperty() {
-        return title;
+        if (titleProperty == null) {
+            titleProperty = new SimpleStringProperty(this, "title", title);
+        }
+        return titleProperty;
     }
 
     public StringProperty artistProperty() {
-        return artist;
+        if (artistProperty == null) {
+            artistProperty = new SimpleStringProperty(this, "artist", artist);
+        }
+        return artistProperty;
     }
 
     public StringProperty albumProperty() {
-        return album;
+        if (albumProperty == null) {
+            albumProperty = new SimpleStringProperty(this, "album", album);
+        }
+        return albumProperty;
+    }
+
+    public StringProperty genreProperty() {
+        if (genreProperty == null) {
+            genreProperty = new SimpleStringProperty(this, "genre", genre);
+        }
+        return genreProperty;
+    }
+
+    public ReadOnlyBooleanProperty availableProperty() {
+        if (availableProperty == null) {
+            availableProperty = new SimpleBooleanProperty(available);
+        }
+        return availableProperty;
+    }
+
+    // Must be called on the FX thread
+    void setAvailable(boolean available) {
+        this.available = available;
+        if (availableProperty != null) {
+            availableProperty.set(available);
+        }
+    }
+
+    // FX thread only, like the properties the keys are read from
+    byte[] titleSortKey() {
+        if (titleSortKey == null) {
+            titleSortKey = SortKeys.keyOf(SortKeys.Field.TITLE, getTitle());
+            titleSortPrefix = SortKeys.prefixOf(titleSortKey);
+        }
+        return titleSortKey;
+    }
+
+    byte[] artistSortKey() {
+        if (artistSortKey == null) {
+            artistSortKey = SortKeys.keyOf(SortKeys.Field.ARTIST, getArtist());
+            artistSortPrefix = SortKeys.prefixOf(artistSortKey);
+        }
+        return artistSortKey;
+    }
+
+    byte[] albumSortKey() {
+        if (albumSortKey == null) {
+            albumSortKey = SortKeys.keyOf(SortKeys.Field.ALBUM, getAlbum());
+            albumSortPrefix = SortKeys.prefixOf(albumSortKey);
+        }
+        return albumSortKey;
+    }
+
+    byte[] genreSortKey() {
+        if (genreSortKey == null) {
+            genreSortKey = SortKeys.keyOf(SortKeys.Field.GENRE, getGenre());
+            genreSortPrefix = SortKeys.prefixOf(genreSortKey);
+        }
+        return genreSortKey;
+    }
+
+    // Valid once the matching key has been asked for
+    long titleSortPrefix() {
+        return titleSortPrefix;
+    }
+
+    long artistSortPrefix() {
+        return artistSortPrefix;
+    }
+
+    long albumSortPrefix() {
+        return albumSortPrefix;
+    }
+
+    long genreSortPrefix() {
+        return genreSortPrefix;
+    }
+
+    // Set by the library on the FX thread when the file was moved or renamed
+    void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    // Assigned by SongCatalog on the FX thread, or when reading a saved library
+    void setId(int id) {
+        this.id = id;
+    }
+
+    // Maintained by the library on the FX thread
+    void setAddedAt(long addedAt) {
+        this.addedAt = addedAt;
+    }
+
+    void setPlayCount(int playCount) {
+        this.playCount = playCount;
     }
 
     // Getters
+    public int getId() {
+        return id;
+    }
+
+    public long getAddedAt() {
+        return addedAt;
+    }
+
+    public int getPlayCount() {
+        return playCount;
+    }
+
     public String getFilePath() {
         return filePath;
     }
 
     public String getTitle() {
-        return title.get();
+        return titleProperty != null ? titleProperty.get() : title;
     }
 
     public String getArtist() {
-        return artist.get();
+        return artistProperty != null ? artistProperty.get() : artist;
     }
 
     public String getAlbum() {
-        return album.get();
+        return albumProperty != null ? albumProperty.get() : album;
     }
 
     public String getGenre() {
-        return genre.get();
+        return genreProperty != null ? genreProperty.get() : genre;
     }
 
-    // Used for display in lists.
-    @Override
-    public String toString() {
-        return getTitle() + " - " + getArtist();
+    public long getLastModified() {
+        return lastModified;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Song song = (Song) o;
-        return filePath.equals(song.filePath);
+    public long getFileSize() {
+        return fileSize;
     }
 
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    // Used for display in lists.
     @Override
-    public int hashCode() {
-        return java.util.Objects.hash(filePath);
+    public String toString() {
+        return getTitle() + " - " + getArtist();
     }
 }
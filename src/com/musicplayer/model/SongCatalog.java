@@ -0,0 +1,285 @@
+package com.musicplayer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented index over the songs in the library.
+ * Songs are stored by their ID, which the catalog hands out when a song
+ * first joins the library and which is saved with it, so it stays the same
+ * across restarts and rescans. IDs are handed out in increasing order and
+ * never reused, even after the song is removed. Artist, album and genre are stored as int
+ * codes into per-column dictionaries, with a bitset of song IDs per code.
+ * Counting, filtering and grouping by a tag then scans int arrays and bitsets
+ * instead of walking Song objects and comparing strings.
+ *
+ * Kept in step with the library's song list; only use it on the FX thread.
+ */
+public final class SongCatalog {
+    public enum Column { ARTIST, ALBUM, GENRE }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private Song[] songs = new Song[INITIAL_CAPACITY];
+    private final int[][] codes = new int[Column.values().length][INITIAL_CAPACITY];
+    private final Dictionary[] dictionaries = new Dictionary[Column.values().length];
+    private final BitSet live = new BitSet();
+    // Number of songs per album code, for each artist code
+    private final List<Map<Integer, Integer>> albumCountsByArtist = new ArrayList<>();
+    private int nextId; // One past the highest ID ever handed out
+    private int size;
+
+    SongCatalog() {
+        for (int c = 0; c < dictionaries.length; c++) {
+            dictionaries[c] = new Dictionary();
+        }
+    }
+
+    /** A string column stored as codes: one entry per distinct value, and the songs that have it. */
+    private static final class Dictionary {
+        final Map<String, Integer> codesByValue = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+        final List<BitSet> songsByCode = new ArrayList<>();
+        int[] songCounts = new int[16]; // Cardinality of each songsByCode set
+
+        int encode(String value) {
+            Integer code = codesByValue.get(value);
+            if (code == null) {
+                code = values.size();
+                codesByValue.put(value, code);
+                values.add(value);
+                songsByCode.add(new BitSet());
+                if (code == songCounts.length) {
+                    songCounts = Arrays.copyOf(songCounts, code * 2);
+                }
+            }
+            return code;
+        }
+    }
+
+    // --- Maintenance, driven by changes to the library's song list ---
+
+    void add(Song song) {
+        int id = song.getId();
+        if (id < 0 || get(id) != null) {
+            // New to the library, or the saved ID is taken
+            id = nextId++;
+            song.setId(id);
+        } else {
+            nextId = Math.max(nextId, id + 1);
+        }
+        ensureCapacity(id + 1);
+        songs[id] = song;
+        live.set(id);
+        size++;
+        index(id, song);
+    }
+
+    /**
+     * Makes sure new songs get IDs from next on, e.g. the next ID saved with
+     * the library, so IDs of songs removed in earlier sessions stay retired.
+     */
+    void reserveIds(int next) {
+        nextId = Math.max(nextId, next);
+    }
+
+    /** The ID the next new song will get. */
+    int getNextId() {
+        return nextId;
+    }
+
+    void update(Song song) {
+        int id = song.getId();
+        if (!contains(song)) {
+            add(song);
+            return;
+        }
+        unindex(id);
+        index(id, song);
+    }
+
+    void remove(Song song) {
+        // The song keeps its ID, so playlists can still find it while it is removed from them
+        int id = song.getId();
+        if (!contains(song)) {
+            return;
+        }
+        unindex(id);
+        songs[id] = null;
+        live.clear(id);
+        size--;
+    }
+
+    void clear() {
+        Arrays.fill(songs, null);
+        live.clear();
+        for (int c = 0; c < dictionaries.length; c++) {
+            dictionaries[c] = new Dictionary();
+        }
+        albumCountsByArtist.clear();
+        nextId = 0;
+        size = 0;
+    }
+
+    private void index(int id, Song song) {
+        setCode(Column.ARTIST, id, song.getArtist());
+        setCode(Column.ALBUM, id, song.getAlbum());
+        setCode(Column.GENRE, id, song.getGenre());
+        int artist = codes[Column.ARTIST.ordinal()][id];
+        while (albumCountsByArtist.size() <= artist) {
+            albumCountsByArtist.add(new HashMap<>());
+        }
+        albumCountsByArtist.get(artist).merge(codes[Column.ALBUM.ordinal()][id], 1, Integer::sum);
+    }
+
+    private void setCode(Column column, int id, String value) {
+        Dictionary dictionary = dictionaries[column.ordinal()];
+        int code = dictionary.encode(value);
+        codes[column.ordinal()][id] = code;
+        dictionary.songsByCode.get(code).set(id);
+        dictionary.songCounts[code]++;
+    }
+
+    private void unindex(int id) {
+        for (Column column : Column.values()) {
+            int code = codes[column.ordinal()][id];
+            Dictionary dictionary = dictionaries[column.ordinal()];
+            dictionary.songsByCode.get(code).clear(id);
+            dictionary.songCounts[code]--;
+        }
+        Map<Integer, Integer> albumCounts = albumCountsByArtist.get(codes[Column.ARTIST.ordinal()][id]);
+        albumCounts.computeIfPresent(codes[Column.ALBUM.ordinal()][id], (album, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= songs.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, songs.length * 2);
+        songs = Arrays.copyOf(songs, newCapacity);
+        for (int c = 0; c < codes.length; c++) {
+            codes[c] = Arrays.copyOf(codes[c], newCapacity);
+        }
+    }
+
+    // --- Queries ---
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(Song song) {
+        int id = song.getId();
+        return id >= 0 && id < songs.length && songs[id] == song;
+    }
+
+    /** The song with this ID, or null if the ID is free. */
+    public Song get(int id) {
+        return id >= 0 && id < songs.length ? songs[id] : null;
+    }
+
+    /** IDs of all songs in the catalog. The returned set is a copy. */
+    public BitSet ids() {
+        return (BitSet) live.clone();
+    }
+
+    /** Number of distinct values seen in a column, including ones no song has any more. */
+    public int codeCount(Column column) {
+        return dictionaries[column.ordinal()].values.size();
+    }
+
+    /** The code of a value in a column, or -1 if no song has ever had it. */
+    public int codeOf(Column column, String value) {
+        Integer code = dictionaries[column.ordinal()].codesByValue.get(value);
+        return code != null ? code : -1;
+    }
+
+    public String valueOf(Column column, int code) {
+        return dictionaries[column.ordinal()].values.get(code);
+    }
+
+    /** The code a song has in a column. */
+    public int code(Column column, int id) {
+        return codes[column.ordinal()][id];
+    }
+
+    /** IDs of the songs with this value in a column. The returned set is a copy. */
+    public BitSet idsWith(Column column, String value) {
+        int code = codeOf(column, value);
+        return code < 0 ? new BitSet() : (BitSet) dictionaries[column.ordinal()].songsByCode.get(code).clone();
+    }
+
+    /** Number of songs with each code in a column, indexed by code. */
+    public int[] counts(Column column) {
+        return Arrays.copyOf(dictionaries[column.ordinal()].songCounts, codeCount(column));
+    }
+
+    /** Number of songs with each code in a column, counting only the given song IDs. */
+    public int[] counts(Column column, BitSet ids) {
+        int[] counts = new int[codeCount(column)];
+        int[] columnCodes = codes[column.ordinal()];
+        for (int id = ids.nextSetBit(0); id >= 0 && id < songs.length; id = ids.nextSetBit(id + 1)) {
+            if (songs[id] != null) {
+                counts[columnCodes[id]]++;
+            }
+        }
+        return counts;
+    }
+
+    /** Number of songs that have this value in a column. */
+    public int count(Column column, String value) {
+        int code = codeOf(column, value);
+        return code < 0 ? 0 : dictionaries[column.ordinal()].songCounts[code];
+    }
+
+    /**
+     * Number of songs of an artist on each of its albums, by album code.
+     * Only albums the artist still has songs on are included.
+     */
+    public Map<Integer, Integer> albumCounts(String artist) {
+        int code = codeOf(Column.ARTIST, artist);
+        return code < 0 || code >= albumCountsByArtist.size()
+                ? Map.of() : Collections.unmodifiableMap(albumCountsByArtist.get(code));
+    }
+
+    /** Number of songs of an artist on each of its albums, counting only the given song IDs. */
+    public Map<Integer, Integer> albumCounts(String artist, BitSet ids) {
+        int code = codeOf(Column.ARTIST, artist);
+        if (code < 0) {
+            return Map.of();
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        int[] albums = codes[Column.ALBUM.ordinal()];
+        BitSet songsOfArtist = dictionaries[Column.ARTIST.ordinal()].songsByCode.get(code);
+        for (int id = songsOfArtist.nextSetBit(0); id >= 0; id = songsOfArtist.nextSetBit(id + 1)) {
+            if (ids.get(id)) {
+                counts.merge(albums[id], 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /** Songs with both this artist and this album, in ID order, optionally only the given song IDs. */
+    public List<Song> songsOf(String artist, String album, BitSet ids) {
+        int artistCode = codeOf(Column.ARTIST, artist);
+        int albumCode = codeOf(Column.ALBUM, album);
+        List<Song> found = new ArrayList<>();
+        if (artistCode < 0 || albumCode < 0) {
+            return found;
+        }
+        int[] artists = codes[Column.ARTIST.ordinal()];
+        // The album is usually the smaller set, so walk it
+        BitSet songsOnAlbum = dictionaries[Column.ALBUM.ordinal()].songsByCode.get(albumCode);
+        for (int id = songsOnAlbum.nextSetBit(0); id >= 0; id = songsOnAlbum.nextSetBit(id + 1)) {
+            if (artists[id] == artistCode && (ids == null || ids.get(id))) {
+                found.add(songs[id]);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,107 @@
+package com.musicplayer.model;
+
+import javafx.collections.ModifiableObservableListBase;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An observable song list that can report new tags for many songs in one
+ * change. Replacing each song with itself would fire one change per song;
+ * updated() fires a single update change instead, which listeners see
+ * through wasUpdated() and which filtered and sorted views re-check.
+ * Only use it on the FX thread.
+ */
+final class SongList extends ModifiableObservableListBase<Song> {
+    private final ArrayList<Song> songs = new ArrayList<>();
+
+    /** Tells listeners, in one change, that the tags of these songs have changed. */
+    void updated(Set<Song> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        beginChange();
+        try {
+            for (int i = 0; i < songs.size(); i++) {
+                if (changed.contains(songs.get(i))) {
+                    nextUpdate(i);
+                }
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public Song get(int index) {
+        return songs.get(index);
+    }
+
+    @Override
+    public int size() {
+        return songs.size();
+    }
+
+    @Override
+    protected void doAdd(int index, Song song) {
+        songs.add(index, song);
+    }
+
+    @Override
+    protected Song doSet(int index, Song song) {
+        return songs.set(index, song);
+    }
+
+    @Override
+    protected Song doRemove(int index) {
+        return songs.remove(index);
+    }
+
+    /**
+     * Starts grouping edits: listeners see everything up to the matching
+     * endEdits() as one change. Calls must pair up.
+     */
+    void beginEdits() {
+        beginChange();
+    }
+
+    void endEdits() {
+        endChange();
+    }
+
+    // The base class adds and removes one song at a time; a whole batch or a clear is one step here
+
+    @Override
+    public boolean addAll(Collection<? extends Song> added) {
+        if (added.isEmpty()) {
+            return false;
+        }
+        beginChange();
+        try {
+            int from = songs.size();
+            songs.addAll(added);
+            modCount++;
+            nextAdd(from, songs.size());
+        } finally {
+            endChange();
+        }
+        return true;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        beginChange();
+        try {
+            List<Song> range = songs.subList(fromIndex, toIndex);
+            nextRemove(fromIndex, new ArrayList<>(range));
+            range.clear();
+            modCount++;
+        } finally {
+            endChange();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.musicplayer.model;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sort order for songs by tag, following the rules of the user's language:
+ * case is ignored, accented letters sort next to their plain ones, and a
+ * leading "The " is skipped, so "The Beatles" sorts under B.
+ *
+ * Each song keeps the collation keys of its tags once they've been asked
+ * for, so sorting compares byte arrays instead of collating strings on
+ * every comparison, and mostly just a prefix of the keys that the song
+ * holds as a number. Artist, album and genre keys are shared between songs
+ * with the same tag. Only use it on the FX thread.
+ */
+public final class SortKeys {
+    public enum Field { TITLE, ARTIST, ALBUM, GENRE }
+
+    private static final Collator COLLATOR = Collator.getInstance();
+    static {
+        COLLATOR.setStrength(Collator.SECONDARY);
+        COLLATOR.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+    }
+
+    // Entries are never removed, like the tags in StringDictionary
+    private static final Map<String, byte[]> SHARED_KEYS = new HashMap<>();
+
+    private static final Comparator<Song> BY_TITLE = (a, b) ->
+            compare(a.titleSortKey(), a.titleSortPrefix(), b.titleSortKey(), b.titleSortPrefix());
+    private static final Comparator<Song> BY_ARTIST = (a, b) ->
+            compare(a.artistSortKey(), a.artistSortPrefix(), b.artistSortKey(), b.artistSortPrefix());
+    private static final Comparator<Song> BY_ALBUM = (a, b) ->
+            compare(a.albumSortKey(), a.albumSortPrefix(), b.albumSortKey(), b.albumSortPrefix());
+    private static final Comparator<Song> BY_GENRE = (a, b) ->
+            compare(a.genreSortKey(), a.genreSortPrefix(), b.genreSortKey(), b.genreSortPrefix());
+
+    private SortKeys() {
+    }
+
+    /** Orders songs by one tag, ascending. Combine with thenComparing for more columns. */
+    public static Comparator<Song> comparator(Field field) {
+        switch (field) {
+            case TITLE: return BY_TITLE;
+            case ARTIST: return BY_ARTIST;
+            case ALBUM: return BY_ALBUM;
+            default: return BY_GENRE;
+        }
+    }
+
+    // Songs with the same artist, album or genre share their key, so ties are cheap
+    private static int compare(byte[] keyA, long prefixA, byte[] keyB, long prefixB) {
+        int byPrefix = Long.compareUnsigned(prefixA, prefixB);
+        if (byPrefix != 0 || keyA == keyB) {
+            return byPrefix;
+        }
+        return Arrays.compareUnsigned(keyA, keyB);
+    }
+
+    static byte[] keyOf(Field field, String value) {
+        if (field == Field.TITLE) {
+            return collate(value);
+        }
+        return SHARED_KEYS.computeIfAbsent(value, SortKeys::collate);
+    }
+
+    /**
+     * The start of a key as a number that orders like the keys do, except
+     * that keys with equal prefixes still have to be compared in full. Keys
+     * are made of 16-bit weights, and the weights of common letters fit in a
+     * byte, so each weight takes one byte here; the first weight that doesn't
+     * fit ends the prefix.
+     */
+    static long prefixOf(byte[] key) {
+        long prefix = 0;
+        boolean full = false;
+        for (int i = 0; i < 8; i++) {
+            int weight = 0;
+            if (!full && 2 * i < key.length) {
+                weight = (key[2 * i] & 0xFF) << 8 | (2 * i + 1 < key.length ? key[2 * i + 1] & 0xFF : 0);
+                if (weight >= 0xFF) {
+                    weight = 0xFF;
+                    full = true;
+                }
+            }
+            prefix = prefix << 8 | weight;
+        }
+        return prefix;
+    }
+
+    private static byte[] collate(String value) {
+        String text = value.trim();
+        if (text.length() > 4 && text.regionMatches(true, 0, "The ", 0, 4)) {
+            text = text.substring(4).trim();
+        }
+        return COLLATOR.getCollationKey(text).toByteArray();
+    }
+}
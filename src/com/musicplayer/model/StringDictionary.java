@@ -0,0 +1,45 @@
+package com.musicplayer.model;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one String instance per distinct value, so tags that repeat across
+ * thousands of songs are stored once. Safe to use from scanner threads.
+ * Entries are never removed; the number of distinct tags stays small
+ * compared to the number of songs.
+ */
+final class StringDictionary {
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+
+    String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = values.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * The form tags are compared in: lowercase, trimmed, with runs of
+     * whitespace collapsed to one space.
+     */
+    static String normalize(String value) {
+        String trimmed = value.trim();
+        boolean collapse = false;
+        for (int i = 1; i < trimmed.length(); i++) {
+            if (Character.isWhitespace(trimmed.charAt(i)) && (trimmed.charAt(i) != ' ' || Character.isWhitespace(trimmed.charAt(i - 1)))) {
+                collapse = true;
+                break;
+            }
+        }
+        if (collapse) {
+            trimmed = trimmed.replaceAll("\\s+", " ");
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+}
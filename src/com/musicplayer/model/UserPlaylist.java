@@ -1,26 +1,140 @@
 package com.musicplayer.model;
 
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A standard, user-managed playlist.
+ * Besides the song list shown in the UI, membership is tracked by song ID,
+ * so checking whether a song is in the playlist doesn't scan the list.
  */
 public class UserPlaylist implements Playlist {
     private String name;
     private final ObservableList<Song> songs;
+    private final BitSet memberIds = new BitSet();
 
     public UserPlaylist(String name) {
         this.name = name;
         this.songs = FXCollections.observableArrayList();
+        this.songs.addListener(this::trackMembers);
     }
 
     public void addSong(Song song) {
-        if (song != null && !songs.contains(song)) {
+        if (song != null && !contains(song)) {
             songs.add(song);
         }
     }
 
+    /**
+     * Appends the songs that aren't in the playlist yet, in one list change.
+     * Returns how many were added.
+     */
+    public int addSongs(Collection<? extends Song> toAdd) {
+        List<Song> newSongs = new ArrayList<>(toAdd.size());
+        BitSet pending = new BitSet();
+        for (Song song : toAdd) {
+            if (song == null || contains(song)) {
+                continue;
+            }
+            int id = song.getId();
+            if (id >= 0 ? !pending.get(id) : !newSongs.contains(song)) {
+                if (id >= 0) {
+                    pending.set(id);
+                }
+                newSongs.add(song);
+            }
+        }
+        songs.addAll(newSongs);
+        return newSongs.size();
+    }
+
+    /**
+     * Removes the given songs in one list change.
+     */
+    public void removeSongs(Collection<? extends Song> toRemove) {
+        Set<Song> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Song song : toRemove) {
+            if (song != null && contains(song)) {
+                gone.add(song);
+            }
+        }
+        if (!gone.isEmpty()) {
+            songs.removeAll(gone);
+        }
+    }
+
+    /**
+     * Moves the given songs, keeping their order, so that the first of them
+     * ends up at the given index. Fires a single permutation.
+     */
+    public void moveSongs(Collection<? extends Song> toMove, int index) {
+        Set<Song> moving = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Song song : toMove) {
+            if (song != null && contains(song)) {
+                moving.add(song);
+            }
+        }
+        if (moving.isEmpty()) {
+            return;
+        }
+        List<Song> staying = new ArrayList<>(songs.size() - moving.size());
+        List<Song> moved = new ArrayList<>(moving.size());
+        for (Song song : songs) {
+            (moving.contains(song) ? moved : staying).add(song);
+        }
+        int target = Math.max(0, Math.min(index, staying.size()));
+        Map<Song, Integer> positions = new IdentityHashMap<>(songs.size() * 2);
+        for (int i = 0; i < staying.size(); i++) {
+            positions.put(staying.get(i), i < target ? i : i + moved.size());
+        }
+        for (int i = 0; i < moved.size(); i++) {
+            positions.put(moved.get(i), target + i);
+        }
+        songs.sort((a, b) -> Integer.compare(positions.get(a), positions.get(b)));
+    }
+
+    public boolean contains(Song song) {
+        // Songs that aren't in a library yet have no ID to look up
+        return song.getId() >= 0 ? memberIds.get(song.getId()) : songs.contains(song);
+    }
+
+    /** The IDs of the songs in playlist order, as saved. */
+    public int[] getSongIds() {
+        int[] ids = new int[songs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = songs.get(i).getId();
+        }
+        return ids;
+    }
+
+    // A playlist holds each song at most once, so a removed song is no longer a member
+    private void trackMembers(ListChangeListener.Change<? extends Song> change) {
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            for (Song song : change.getRemoved()) {
+                if (song.getId() >= 0) {
+                    memberIds.clear(song.getId());
+                }
+            }
+            for (Song song : change.getAddedSubList()) {
+                if (song.getId() >= 0) {
+                    memberIds.set(song.getId());
+                }
+            }
+        }
+    }
+
     @Override
     public String getName() {
         return this.name;
@@ -0,0 +1,70 @@
+package com.musicplayer.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Computes a cheap content fingerprint for an MP3 file, used to spot the same
+ * rip stored under two paths. A few fixed-size blocks are sampled from the
+ * audio payload (between the ID3v2 header and the ID3v1 trailer), so retagging
+ * a file doesn't change it and the cost doesn't grow with file size.
+ */
+public final class AudioFingerprint {
+    private static final int SAMPLE_COUNT = 4;
+    private static final int SAMPLE_SIZE = 4096;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private AudioFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of the file behind the channel. Never returns 0,
+     * which the library uses to mean "not computed yet".
+     */
+    public static long compute(FileChannel channel) throws IOException {
+        long start = Id3TagReader.id3v2Size(channel);
+        long end = channel.size() - (Id3TagReader.hasId3v1(channel) ? 128 : 0);
+        long payload = Math.max(0, end - start);
+
+        long hash = mix(FNV_OFFSET, payload);
+        ByteBuffer block = ByteBuffer.allocate(SAMPLE_SIZE);
+        if (payload <= (long) SAMPLE_COUNT * SAMPLE_SIZE) {
+            hash = hashRange(channel, block, start, end, hash);
+        } else {
+            // Evenly spaced blocks, first at the start of the audio and last ending at its end
+            long step = (payload - SAMPLE_SIZE) / (SAMPLE_COUNT - 1);
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                long position = start + i * step;
+                hash = hashRange(channel, block, position, position + SAMPLE_SIZE, hash);
+            }
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long hashRange(FileChannel channel, ByteBuffer block, long from, long to, long hash) throws IOException {
+        long position = from;
+        while (position < to) {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), to - position));
+            int n = channel.read(block, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                hash = (hash ^ (block.get(i) & 0xFF)) * FNV_PRIME;
+            }
+            position += n;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ ((value >>> (i * 8)) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,138 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.MusicLibrary;
+import com.musicplayer.model.Song;
+import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks in the background whether the files of loaded songs still exist.
+ * Songs whose files are gone are marked unavailable instead of being dropped,
+ * so a drive that isn't mounted yet doesn't empty the library or its playlists.
+ * Results reach the library in batches through its publisher.
+ */
+public class AvailabilityChecker {
+    private static final int CHUNK_SIZE = 256;
+
+    private final MusicLibrary library;
+    private final ExecutorService workers;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicInteger remainingChunks = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    public AvailabilityChecker(MusicLibrary library) {
+        // Existence checks mostly wait on the disk or network, so use more threads than cores
+        this(library, Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    public AvailabilityChecker(MusicLibrary library, int threadCount) {
+        this.library = library;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threadCount),
+                LibraryScanner.daemonThreads("noiz-availability"));
+    }
+
+    /**
+     * Starts checking the given songs. The list is copied, so it can be the
+     * library's live list as long as this is called on the FX thread.
+     */
+    public void start(List<Song> songs) {
+        List<Song> toCheck = new ArrayList<>(songs);
+        startedAt = System.nanoTime();
+        int chunks = (toCheck.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks == 0) {
+            finish();
+            return;
+        }
+        remainingChunks.set(chunks);
+        try {
+            for (int from = 0; from < toCheck.size(); from += CHUNK_SIZE) {
+                List<Song> chunk = toCheck.subList(from, Math.min(from + CHUNK_SIZE, toCheck.size()));
+                workers.execute(() -> checkChunk(chunk));
+            }
+        } catch (RejectedExecutionException e) {
+            // Cancelled while submitting
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        workers.shutdownNow();
+        done = true;
+    }
+
+    private void checkChunk(List<Song> chunk) {
+        for (Song song : chunk) {
+            if (cancelled) {
+                return;
+            }
+            boolean exists = fileExists(song.getFilePath());
+            checked.incrementAndGet();
+            if (!exists) {
+                missing.incrementAndGet();
+            }
+            if (exists != song.isAvailable()) {
+                library.setAvailable(song.getFilePath(), exists);
+            }
+        }
+        if (remainingChunks.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        finishedAt = System.nanoTime();
+        done = true;
+        workers.shutdown();
+    }
+
+    static boolean fileExists(String filePath) {
+        try {
+            Path path = Paths.get(URI.create(filePath));
+            return Files.exists(path);
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return false;
+        }
+    }
+
+    public long getChecked() {
+        return checked.get();
+    }
+
+    public long getMissing() {
+        return missing.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /** Time taken by the whole check, or 0 while it is still running. */
+    public double getElapsedMillis() {
+        return done && finishedAt != 0 ? (finishedAt - startedAt) / 1_000_000.0 : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files checked, %d missing%s", getChecked(), getMissing(),
+                isCancelled() ? " (cancelled)" : done ? String.format(" in %.0f ms", getElapsedMillis()) : "");
+    }
+}
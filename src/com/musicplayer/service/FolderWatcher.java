@@ -0,0 +1,224 @@
+package com.musicplayer.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps scanned folders in sync with the library while the app runs.
+ * File events are collected until the folder has been quiet for a short
+ * while, so copying in a whole album becomes one incremental update.
+ * If the event queue overflows, the affected folder is rescanned instead.
+ */
+public class FolderWatcher {
+    private static final long QUIET_PERIOD_MS = 1000;
+    // Under a constant stream of events, flush at least this often
+    private static final long MAX_DELAY_MS = 5000;
+
+    private final LibraryScanner scanner;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private final Thread thread;
+
+    // Pending work, only touched by the watcher thread
+    private final Set<Path> changedPaths = new LinkedHashSet<>();
+    private final Set<Path> dirsToRescan = new LinkedHashSet<>();
+    private long firstPendingAt;
+    private long lastEventAt;
+    // Scans started by the last flushes that may still be running; cancelled on close
+    private final List<ScanTask> tasks = new ArrayList<>(); // Guarded by itself
+
+    private volatile boolean closed;
+
+    public FolderWatcher(LibraryScanner scanner) throws IOException {
+        this.scanner = scanner;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, "noiz-folder-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts watching a folder and every folder below it.
+     */
+    public void watch(Path root) {
+        try {
+            registerTree(root);
+        } catch (ClosedWatchServiceException e) {
+            // Closed on shutdown while still registering
+        } catch (IOException e) {
+            System.err.println("Could not watch folder: " + root);
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (tasks) {
+            for (ScanTask task : tasks) {
+                task.cancel();
+            }
+            tasks.clear();
+        }
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (watchedDirs) {
+                    watchedDirs.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                System.err.println("Could not watch: " + file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                WatchKey key;
+                if (!hasPending()) {
+                    key = watchService.take();
+                } else {
+                    long now = System.currentTimeMillis();
+                    long wait = Math.min(lastEventAt + QUIET_PERIOD_MS, firstPendingAt + MAX_DELAY_MS) - now;
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        flush();
+                        continue;
+                    }
+                }
+                collect(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed on shutdown
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path dir;
+        synchronized (watchedDirs) {
+            dir = watchedDirs.get(key);
+        }
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; only a rescan of this subtree can tell what changed
+                addPending(dirsToRescan, dir);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                // New folders need watching, and may already contain files
+                watch(child);
+                addPending(dirsToRescan, child);
+            } else {
+                addPending(changedPaths, child);
+            }
+        }
+
+        if (!key.reset()) {
+            // The folder itself is gone
+            synchronized (watchedDirs) {
+                watchedDirs.remove(key);
+            }
+            addPending(changedPaths, dir);
+        }
+    }
+
+    private void addPending(Set<Path> pending, Path path) {
+        long now = System.currentTimeMillis();
+        if (!hasPending()) {
+            firstPendingAt = now;
+        }
+        lastEventAt = now;
+        pending.add(path);
+    }
+
+    private boolean hasPending() {
+        return !changedPaths.isEmpty() || !dirsToRescan.isEmpty();
+    }
+
+    private void flush() {
+        // A folder that has since been deleted is handled like any other removed path
+        for (Path dir : new ArrayList<>(dirsToRescan)) {
+            if (!Files.isDirectory(dir)) {
+                dirsToRescan.remove(dir);
+                changedPaths.add(dir);
+            }
+        }
+
+        // Paths below a folder that is being rescanned anyway don't need their own check
+        List<Path> paths = new ArrayList<>();
+        for (Path path : changedPaths) {
+            if (dirsToRescan.stream().noneMatch(path::startsWith)) {
+                paths.add(path);
+            }
+        }
+        List<ScanTask> started = new ArrayList<>();
+        if (!paths.isEmpty()) {
+            started.add(scanner.scanFiles(paths));
+        }
+        for (Path dir : dirsToRescan) {
+            if (dirsToRescan.stream().noneMatch(other -> other != dir && dir.startsWith(other))) {
+                started.add(scanner.scan(dir.toFile()));
+            }
+        }
+        changedPaths.clear();
+        dirsToRescan.clear();
+
+        synchronized (tasks) {
+            tasks.removeIf(ScanTask::isDone);
+            for (ScanTask task : started) {
+                if (task != null) {
+                    tasks.add(task);
+                }
+            }
+            if (closed) {
+                // Closed while this flush was starting them
+                for (ScanTask task : tasks) {
+                    task.cancel();
+                }
+                tasks.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.musicplayer.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads title, artist, album and genre from MP3 files without a media player.
+ * Only the ID3v2 frame headers, the few text frames we need, and the 128-byte
+ * ID3v1 trailer are read, so a typical file costs a few KB of I/O.
+ */
+public final class Id3TagReader {
+    private static final int ID3V1_SIZE = 128;
+    // Tags with tag-wide unsynchronisation have to be decoded in memory; larger ones are skipped.
+    private static final int MAX_UNSYNC_TAG_SIZE = 256 * 1024;
+
+    private static final String[] GENRES = {
+            "Blues", "Classic Rock", "Country", "Dance", "Disco", "Funk", "Grunge", "Hip-Hop", "Jazz", "Metal",
+            "New Age", "Oldies", "Other", "Pop", "R&B", "Rap", "Reggae", "Rock", "Techno", "Industrial",
+            "Alternative", "Ska", "Death Metal", "Pranks", "Soundtrack", "Euro-Techno", "Ambient", "Trip-Hop", "Vocal", "Jazz+Funk",
+            "Fusion", "Trance", "Classical", "Instrumental", "Acid", "House", "Game", "Sound Clip", "Gospel", "Noise",
+            "AlternRock", "Bass", "Soul", "Punk", "Space", "Meditative", "Instrumental Pop", "Instrumental Rock", "Ethnic", "Gothic",
+            "Darkwave", "Techno-Industrial", "Electronic", "Pop-Folk", "Eurodance", "Dream", "Southern Rock", "Comedy", "Cult", "Gangsta",
+            "Top 40", "Christian Rap", "Pop/Funk", "Jungle", "Native American", "Cabaret", "New Wave", "Psychadelic", "Rave", "Showtunes",
+            "Trailer", "Lo-Fi", "Tribal", "Acid Punk", "Acid Jazz", "Polka", "Retro", "Musical", "Rock & Roll", "Hard Rock",
+            "Folk", "Folk-Rock", "National Folk", "Swing", "Fast Fusion", "Bebob", "Latin", "Revival", "Celtic", "Bluegrass",
+            "Avantgarde", "Gothic Rock", "Progressive Rock", "Psychedelic Rock", "Symphonic Rock", "Slow Rock", "Big Band", "Chorus", "Easy Listening", "Acoustic",
+            "Humour", "Speech", "Chanson", "Opera", "Chamber Music", "Sonata", "Symphony", "Booty Bass", "Primus", "Porn Groove",
+            "Satire", "Slow Jam", "Club", "Tango", "Samba", "Folklore", "Ballad", "Power Ballad", "Rhythmic Soul", "Freestyle",
+            "Duet", "Punk Rock", "Drum Solo", "A capella", "Euro-House", "Dance Hall"
+    };
+
+    /**
+     * Tag values read from a file. Any field may be null if the file doesn't have it.
+     */
+    public static final class TrackTags {
+        private String title;
+        private String artist;
+        private String album;
+        private String genre;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getArtist() {
+            return artist;
+        }
+
+        public String getAlbum() {
+            return album;
+        }
+
+        public String getGenre() {
+            return genre;
+        }
+
+        private boolean isComplete() {
+            return title != null && artist != null && album != null && genre != null;
+        }
+    }
+
+    /** Positional read, as offered by FileChannel. */
+    @FunctionalInterface
+    private interface Source {
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+
+    private Id3TagReader() {
+    }
+
+    /**
+     * Reads the tags of an MP3 file. ID3v2 values take priority; ID3v1 fills any gaps.
+     */
+    public static TrackTags read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads the tags from an open channel using positional reads only.
+     */
+    public static TrackTags read(FileChannel channel) throws IOException {
+        TrackTags tags = new TrackTags();
+        readId3v2(channel, tags);
+        if (!tags.isComplete()) {
+            readId3v1(channel, tags);
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the total size of the ID3v2 tag at the start of the file, or 0 if there is none.
+     */
+    public static long id3v2Size(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(10);
+        if (readFully(channel::read, header, 0) < 10 || !isId3v2Header(header)) {
+            return 0;
+        }
+        boolean hasFooter = (header.get(5) & 0x10) != 0;
+        return 10L + syncSafe(header, 6) + (hasFooter ? 10 : 0);
+    }
+
+    /**
+     * True if the file ends with a 128-byte ID3v1 trailer.
+     */
+    public static boolean hasId3v1(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < ID3V1_SIZE) {
+            return false;
+        }
+        ByteBuffer marker = ByteBuffer.allocate(3);
+        return readFully(channel::read, marker, size - ID3V1_SIZE) == 3
+                && marker.get(0) == 'T' && marker.get(1) == 'A' && marker.get(2) == 'G';
+    }
+
+    private static void readId3v2(FileChannel channel, TrackTags tags) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(10);
+        if (readFully(channel::read, header, 0) < 10 || !isId3v2Header(header)) {
+            return;
+        }
+        int version = header.get(3);
+        int flags = header.get(5) & 0xFF;
+        int tagSize = syncSafe(header, 6);
+        if (version < 2 || version > 4) {
+            return;
+        }
+
+        Source source = channel::read;
+        long position = 10;
+        long end = 10L + tagSize;
+
+        // Tag-wide unsynchronisation (v2.2/v2.3) changes every offset, so decode the whole tag first.
+        if ((flags & 0x80) != 0 && version < 4) {
+            if (tagSize > MAX_UNSYNC_TAG_SIZE) {
+                return;
+            }
+            ByteBuffer raw = ByteBuffer.allocate(tagSize);
+            readFully(source, raw, 10);
+            byte[] decoded = removeUnsynchronisation(raw.array(), raw.position());
+            source = (dst, pos) -> {
+                if (pos >= decoded.length) {
+                    return -1;
+                }
+                int count = (int) Math.min(dst.remaining(), decoded.length - pos);
+                dst.put(decoded, (int) pos, count);
+                return count;
+            };
+            position = 0;
+            end = decoded.length;
+        }
+
+        // Skip the extended header if present
+        if (version >= 3 && (flags & 0x40) != 0) {
+            ByteBuffer extSize = ByteBuffer.allocate(4);
+            if (readFully(source, extSize, position) < 4) {
+                return;
+            }
+            position += version == 4 ? syncSafe(extSize, 0) : extSize.getInt(0) + 4;
+        }
+
+        int headerSize = version == 2 ? 6 : 10;
+        ByteBuffer frameHeader = ByteBuffer.allocate(headerSize);
+        while (position + headerSize <= end && !tags.isComplete()) {
+            frameHeader.clear();
+            if (readFully(source, frameHeader, position) < headerSize || frameHeader.get(0) == 0) {
+                break; // Padding or truncated tag
+            }
+
+            String id;
+            int size;
+            int frameFlags = 0;
+            if (version == 2) {
+                id = new String(frameHeader.array(), 0, 3, StandardCharsets.ISO_8859_1);
+                size = ((frameHeader.get(3) & 0xFF) << 16) | ((frameHeader.get(4) & 0xFF) << 8) | (frameHeader.get(5) & 0xFF);
+            } else {
+                id = new String(frameHeader.array(), 0, 4, StandardCharsets.ISO_8859_1);
+                size = version == 4 ? syncSafe(frameHeader, 4) : frameHeader.getInt(4);
+                frameFlags = frameHeader.getShort(8) & 0xFFFF;
+            }
+            if (size <= 0 || position + headerSize + size > end) {
+                break;
+            }
+
+            String field = fieldFor(id);
+            if (field != null && isReadable(version, frameFlags)) {
+                ByteBuffer data = ByteBuffer.allocate(size);
+                readFully(source, data, position + headerSize);
+                byte[] bytes = data.array();
+                int offset = 0;
+                int length = data.position();
+                if (version == 4 && (frameFlags & 0x0002) != 0) {
+                    bytes = removeUnsynchronisation(bytes, length);
+                    length = bytes.length;
+                }
+                if (version == 4 && (frameFlags & 0x0001) != 0) {
+                    offset = 4; // Data length indicator
+                }
+                setField(tags, field, decodeText(bytes, offset, length));
+            }
+            position += headerSize + size;
+        }
+    }
+
+    private static void readId3v1(FileChannel channel, TrackTags tags) throws IOException {
+        long size = channel.size();
+        if (size < ID3V1_SIZE) {
+            return;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(ID3V1_SIZE);
+        if (readFully(channel::read, trailer, size - ID3V1_SIZE) < ID3V1_SIZE) {
+            return;
+        }
+        byte[] b = trailer.array();
+        if (b[0] != 'T' || b[1] != 'A' || b[2] != 'G') {
+            return;
+        }
+        if (tags.title == null) tags.title = latin1(b, 3, 30);
+        if (tags.artist == null) tags.artist = latin1(b, 33, 30);
+        if (tags.album == null) tags.album = latin1(b, 63, 30);
+        if (tags.genre == null) {
+            int genre = b[127] & 0xFF;
+            tags.genre = genre < GENRES.length ? GENRES[genre] : null;
+        }
+    }
+
+    private static String fieldFor(String frameId) {
+        switch (frameId) {
+            case "TIT2": case "TT2": return "title";
+            case "TPE1": case "TP1": return "artist";
+            case "TALB": case "TAL": return "album";
+            case "TCON": case "TCO": return "genre";
+            default: return null;
+        }
+    }
+
+    private static boolean isReadable(int version, int frameFlags) {
+        if (version == 3) {
+            return (frameFlags & 0x00C0) == 0; // Compressed or encrypted
+        }
+        if (version == 4) {
+            return (frameFlags & 0x000C) == 0;
+        }
+        return true;
+    }
+
+    private static void setField(TrackTags tags, String field, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        switch (field) {
+            case "title": if (tags.title == null) tags.title = value; break;
+            case "artist": if (tags.artist == null) tags.artist = value; break;
+            case "album": if (tags.album == null) tags.album = value; break;
+            case "genre": if (tags.genre == null) tags.genre = parseGenre(value); break;
+            default: break;
+        }
+    }
+
+    /**
+     * Resolves numeric genre references such as "(17)", "(17)Rock" or "17".
+     */
+    static String parseGenre(String value) {
+        String genre = value.trim();
+        if (genre.startsWith("(")) {
+            int close = genre.indexOf(')');
+            if (close > 1) {
+                String rest = genre.substring(close + 1).trim();
+                if (!rest.isEmpty()) {
+                    return rest;
+                }
+                genre = genre.substring(1, close);
+            }
+        }
+        if (!genre.isEmpty() && genre.chars().allMatch(Character::isDigit) && genre.length() <= 3) {
+            int index = Integer.parseInt(genre);
+            return index < GENRES.length ? GENRES[index] : null;
+        }
+        return genre.isEmpty() ? null : genre;
+    }
+
+    private static String decodeText(byte[] bytes, int offset, int length) {
+        if (length - offset < 1) {
+            return null;
+        }
+        int encoding = bytes[offset];
+        Charset charset;
+        switch (encoding) {
+            case 0: charset = StandardCharsets.ISO_8859_1; break;
+            case 1: charset = StandardCharsets.UTF_16; break;
+            case 2: charset = StandardCharsets.UTF_16BE; break;
+            case 3: charset = StandardCharsets.UTF_8; break;
+            default: return null;
+        }
+        String text = new String(bytes, offset + 1, length - offset - 1, charset);
+        // Multiple values are separated by nulls (v2.4); keep the first one
+        int nul = text.indexOf('\0');
+        if (nul >= 0) {
+            text = text.substring(0, nul);
+        }
+        return text.trim();
+    }
+
+    private static String latin1(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        String value = new String(bytes, offset, end - offset, StandardCharsets.ISO_8859_1).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static byte[] removeUnsynchronisation(byte[] bytes, int length) {
+        byte[] out = new byte[length];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            out[count++] = bytes[i];
+            if (bytes[i] == (byte) 0xFF && i + 1 < length && bytes[i + 1] == 0) {
+                i++;
+            }
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private static boolean isId3v2Header(ByteBuffer header) {
+        return header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3';
+    }
+
+    private static int syncSafe(ByteBuffer buffer, int index) {
+        return ((buffer.get(index) & 0x7F) << 21) | ((buffer.get(index + 1) & 0x7F) << 14)
+                | ((buffer.get(index + 2) & 0x7F) << 7) | (buffer.get(index + 3) & 0x7F);
+    }
+
+    private static int readFully(Source source, ByteBuffer dst, long position) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = source.read(dst, position + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
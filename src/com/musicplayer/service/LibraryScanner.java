@@ -0,0 +1,366 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.MusicLibrary;
+import com.musicplayer.model.Song;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Scans music folders and adds the songs it finds to the library.
+ * The folder walk runs on its own thread while tags and content fingerprints
+ * are read on a bounded worker pool, with a hard cap on how many probes are
+ * in flight. Files whose fingerprint is already in the library are treated
+ * as duplicates and skipped, unless the file that had it is gone, in which
+ * case the file was moved or renamed and its song follows it.
+ */
+public class LibraryScanner {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    private final MusicLibrary library;
+    private final int workerCount;
+    private final int maxInFlight;
+
+    public LibraryScanner(MusicLibrary library) {
+        this(library, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public LibraryScanner(MusicLibrary library, int workerCount, int maxInFlight) {
+        if (workerCount < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("workerCount and maxInFlight must be positive");
+        }
+        this.library = library;
+        this.workerCount = workerCount;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Starts scanning a directory recursively for .mp3 files in the background.
+     * Files whose modification time and size match the library are skipped,
+     * changed files are re-read, and songs whose files are gone are removed.
+     * Returns a handle for tracking progress and cancelling, or null if the
+     * directory is not valid.
+     */
+    public ScanTask scan(File directory) {
+        if (directory == null || !directory.isDirectory()) {
+            return null;
+        }
+
+        ScanTask task = newTask(directory.toPath());
+        start(() -> walk(task, true), "noiz-scan-" + directory.getName());
+        return task;
+    }
+
+    /**
+     * Like scan, but songs whose files are gone are marked unavailable rather
+     * than removed. Used to catch up on changes made while the app was closed,
+     * when a drive may simply not be mounted yet.
+     */
+    public ScanTask catchUp(File directory) {
+        if (directory == null || !directory.isDirectory()) {
+            return null;
+        }
+
+        ScanTask task = newTask(directory.toPath());
+        start(() -> walk(task, false), "noiz-catch-up-" + directory.getName());
+        return task;
+    }
+
+    /**
+     * Re-checks individual paths in the background, as reported by a folder watcher.
+     * New and changed files are read, and paths that no longer exist are removed
+     * along with any songs below them. Directories are skipped; scan them instead.
+     */
+    public ScanTask scanFiles(Collection<Path> paths) {
+        ScanTask task = newTask(null);
+        List<Path> snapshot = new ArrayList<>(paths);
+        start(() -> checkPaths(snapshot, task), "noiz-rescan");
+        return task;
+    }
+
+    private ScanTask newTask(Path root) {
+        return new ScanTask(root, Executors.newFixedThreadPool(workerCount, daemonThreads("noiz-probe")), maxInFlight);
+    }
+
+    private void start(Runnable body, String name) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void walk(ScanTask task, boolean removeMissing) {
+        // Paths seen on disk, and folders we couldn't read, decide what counts as removed
+        Set<String> seenPaths = new HashSet<>();
+        List<String> unreadablePrefixes = new ArrayList<>();
+        boolean walkFailed = false;
+        try {
+            walkTree(task.getRoot(), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return task.isCancelled() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (task.isCancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!isMusicFile(file, attrs)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    seenPaths.add(file.toUri().toString());
+                    return submitIfChanged(file, attrs, task) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    System.err.println("Could not read: " + file);
+                    unreadablePrefixes.add(file.toUri().toString());
+                    task.markFailed();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    if (exc != null) {
+                        // Failed part way through listing, so some of it wasn't seen
+                        System.err.println("Could not read: " + dir);
+                        unreadablePrefixes.add(dir.toUri().toString());
+                        task.markFailed();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not scan folder: " + task.getRoot());
+            e.printStackTrace();
+            walkFailed = true;
+        } finally {
+            task.awaitProbes();
+            task.getWorkers().shutdown();
+        }
+
+        // Songs under this folder that weren't seen on disk have been deleted.
+        // A cancelled or failed walk hasn't seen everything, so it can't tell.
+        if (!task.isCancelled() && !walkFailed && task.getRoot().toFile().isDirectory()) {
+            List<String> removed = library.getFilePathsUnder(task.getRoot().toUri().toString()).stream()
+                    .filter(path -> !seenPaths.contains(path))
+                    .filter(path -> unreadablePrefixes.stream().noneMatch(path::startsWith))
+                    .collect(Collectors.toList());
+            if (removeMissing) {
+                remove(removed, task);
+            } else {
+                markMissing(removed, task);
+            }
+        }
+        task.markDone();
+    }
+
+    // Walks the folder tree; tests override it to make the walk fail part way
+    void walkTree(Path root, FileVisitor<Path> visitor) throws IOException {
+        Files.walkFileTree(root, visitor);
+    }
+
+    private void checkPaths(List<Path> paths, ScanTask task) {
+        List<String> removed = new ArrayList<>();
+        try {
+            for (Path path : paths) {
+                if (task.isCancelled()) {
+                    break;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Deleted file, or a deleted folder and everything below it
+                    String filePath = path.toUri().toString();
+                    if (library.containsFilePath(filePath)) {
+                        removed.add(filePath);
+                    }
+                    removed.addAll(library.getFilePathsUnder(filePath.endsWith("/") ? filePath : filePath + "/"));
+                    continue;
+                } catch (IOException e) {
+                    System.err.println("Could not read: " + path);
+                    task.markFailed();
+                    continue;
+                }
+                if (isMusicFile(path, attrs) && !submitIfChanged(path, attrs, task)) {
+                    break;
+                }
+            }
+        } finally {
+            task.awaitProbes();
+            task.getWorkers().shutdown();
+        }
+
+        if (!task.isCancelled()) {
+            remove(removed, task);
+        }
+        task.markDone();
+    }
+
+    /**
+     * Queues a metadata probe if the file is new or changed since the last scan.
+     * Returns false if the scan was cancelled and should stop.
+     */
+    private boolean submitIfChanged(Path file, BasicFileAttributes attrs, ScanTask task) {
+        task.markDiscovered();
+        String filePath = file.toUri().toString();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        long fileSize = attrs.size();
+        Song existing = library.getSongByPath(filePath);
+        if (existing != null && existing.matchesFile(lastModified, fileSize)) {
+            if (!existing.isAvailable()) {
+                library.setAvailable(filePath, true); // Back after being missing, e.g. a remounted drive
+            }
+            task.markUnchanged();
+            return true;
+        }
+
+        try {
+            task.beginProbe(); // Blocks while too many probes are in flight
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            task.getWorkers().execute(() -> probe(file, filePath, lastModified, fileSize, existing != null, task));
+        } catch (RejectedExecutionException e) {
+            // Cancelled between the check above and the submit
+            task.endProbe();
+            return false;
+        }
+        return true;
+    }
+
+    private void remove(List<String> filePaths, ScanTask task) {
+        // A moved song is already on its way to its new path
+        List<String> gone = filePaths.stream().filter(path -> !task.wasMovedFrom(path)).collect(Collectors.toList());
+        if (!gone.isEmpty()) {
+            library.removeSongs(gone);
+            task.markRemoved(gone);
+        }
+    }
+
+    private void markMissing(List<String> filePaths, ScanTask task) {
+        for (String filePath : filePaths) {
+            Song song = library.getSongByPath(filePath);
+            if (song != null && song.isAvailable() && !task.wasMovedFrom(filePath)) {
+                library.setAvailable(filePath, false);
+            }
+        }
+    }
+
+    private static boolean isMusicFile(Path file, BasicFileAttributes attrs) {
+        return attrs.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".mp3");
+    }
+
+    private void probe(Path file, String filePath, long lastModified, long fileSize, boolean known, ScanTask task) {
+        try {
+            if (task.isCancelled()) {
+                return;
+            }
+            Song song = createSongFromMetadata(file, filePath, lastModified, fileSize);
+            task.markProbed();
+            if (task.isCancelled()) {
+                return;
+            }
+
+            // Collapse copies of the same rip found under another path
+            Song previous = library.getSongByPath(filePath);
+            if (previous != null && previous.getFingerprint() != song.getFingerprint()) {
+                library.releaseFingerprint(previous.getFingerprint(), filePath);
+            }
+            String original = library.claimFingerprint(song.getFingerprint(), filePath);
+            if (original != null && !AvailabilityChecker.fileExists(original)
+                    && library.transferFingerprint(song.getFingerprint(), original, filePath)) {
+                // The file that had this audio is gone, so this is the same file, moved or renamed
+                if (!known) {
+                    library.moveSong(original, song);
+                    task.markMoved(original, filePath);
+                    return;
+                }
+                // Moved over a file that was already known: that song takes the new audio,
+                // and the song at the old path goes with the other missing files
+                original = null;
+            }
+            if (original != null) {
+                task.markDuplicate();
+                if (known) {
+                    library.removeSongs(List.of(filePath));
+                    task.markRemoved(List.of(filePath));
+                }
+                return;
+            }
+
+            if (known) {
+                library.updateSong(song);
+                task.markUpdated(song);
+            } else {
+                library.addSong(song);
+                task.markAdded(song);
+            }
+        } catch (Exception e) {
+            System.err.println("Error reading metadata for: " + file);
+            task.markFailed();
+        } finally {
+            task.endProbe();
+        }
+    }
+
+    private Song createSongFromMetadata(Path file, String filePath, long lastModified, long fileSize) throws IOException {
+        Id3TagReader.TrackTags tags;
+        long fingerprint;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            tags = Id3TagReader.read(channel);
+            fingerprint = AudioFingerprint.compute(channel);
+        }
+        String title = tags.getTitle();
+        String artist = tags.getArtist();
+        String album = tags.getAlbum();
+        String genre = tags.getGenre();
+
+        // Use file name as fallback for title
+        if (title == null || title.isEmpty()) {
+            title = file.getFileName().toString().replace(".mp3", "");
+        }
+
+        return new Song(
+                filePath,
+                title,
+                (artist == null ? "" : artist),
+                (album == null ? "" : album),
+                (genre == null ? "" : genre),
+                lastModified,
+                fileSize,
+                fingerprint
+        );
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
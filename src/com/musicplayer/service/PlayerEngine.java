@@ -2,22 +2,54 @@ package com.musicplayer.service;
 
 import com.musicplayer.model.Playlist;
 import com.musicplayer.model.Song;
+import javafx.animation.KeyFrame;
+import javafx.animation.KeyValue;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanWrapper;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.util.Duration;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Manages playback logic, hiding JavaFX MediaPlayer complexity from the UI.
  * The UI calls methods like play(), pause(), next(), etc.
+ *
+ * Shortly before a song ends, the player for the song after it is created
+ * and left to open and preroll its file, so playback can move on to it the
+ * moment the current song ends instead of waiting for that. With a
+ * crossfade set, that player starts early and the two overlap.
  */
 public class PlayerEngine {
+    // How long before the end of a song to start preparing the next one
+    private static final Duration PRELOAD_AHEAD = Duration.seconds(10);
+
     private MediaPlayer mediaPlayer;
+    // The song expected next, and its player once it has been opened ahead of time
+    private Song preparedSong;
+    private MediaPlayer preparedPlayer;
+    // Number of the latest preparation; players from older ones are dropped
+    private long preparation;
+    private final ExecutorService preparer =
+            Executors.newSingleThreadExecutor(LibraryScanner.daemonThreads("noiz-preload"));
+    private double volume = 1.0;
+    // Crossfade length, ZERO for none; while fading, the old player and the timeline ramping both volumes
+    private Duration crossfade = Duration.ZERO;
+    private MediaPlayer fadingPlayer;
+    private Timeline fade;
 
     private final ReadOnlyObjectWrapper<Song> currentSong;
     private final ReadOnlyBooleanWrapper isPlaying;
@@ -26,10 +58,20 @@ public class PlayerEngine {
 
     private final ReadOnlyBooleanWrapper isShuffle;
     private final ReadOnlyBooleanWrapper isRepeat;
-
+    private final ReadOnlyObjectWrapper<Duration> switchLatency;
+    private boolean lastSwitchPreloaded;
 
     private Playlist currentPlaylist;
-    private int currentTrackIndex;
+    private Song currentTrack; // Loaded, though maybe not ready yet
+    private int currentPosition; // Where currentTrack was when loaded, for when it leaves the list
+    // Position of each song in the playlist, rebuilt on first use after the list changes
+    private final Map<Song, Integer> positions = new IdentityHashMap<>();
+    private boolean positionsStale = true;
+    private final ListChangeListener<Song> positionsInvalidator = change -> positionsStale = true;
+    // Shuffled order of the playlist, created when shuffle is first needed
+    private ShuffleQueue shuffleQueue;
+    private final Random random = new Random();
+    private Consumer<Song> onPlayed;
 
     public PlayerEngine() {
         this.currentSong = new ReadOnlyObjectWrapper<>();
@@ -38,73 +80,326 @@ public class PlayerEngine {
         this.totalDuration = new ReadOnlyObjectWrapper<>(Duration.ZERO);
         this.isShuffle = new ReadOnlyBooleanWrapper(false);
         this.isRepeat = new ReadOnlyBooleanWrapper(false);
-        this.currentTrackIndex = 0;
+        this.switchLatency = new ReadOnlyObjectWrapper<>(Duration.UNKNOWN);
+    }
+
+    /**
+     * Sets what to call when a song has played to the end, e.g. to count plays.
+     */
+    public void setOnPlayed(Consumer<Song> onPlayed) {
+        this.onPlayed = onPlayed;
     }
 
     public void loadPlaylist(Playlist playlist) {
         if (mediaPlayer != null) {
             stop();
         }
+        discardPrepared();
+        if (currentPlaylist != null) {
+            currentPlaylist.getSongs().removeListener(positionsInvalidator);
+        }
+        dropShuffleQueue();
         this.currentPlaylist = playlist;
-        this.currentTrackIndex = 0;
+        this.currentTrack = null;
+        this.positionsStale = true;
 
-        if (this.currentPlaylist != null && !this.currentPlaylist.getSongs().isEmpty()) {
-            loadSong(this.currentPlaylist.getSongs().get(currentTrackIndex));
+        if (this.currentPlaylist != null) {
+            this.currentPlaylist.getSongs().addListener(positionsInvalidator);
+            if (!this.currentPlaylist.getSongs().isEmpty()) {
+                loadSong(isShuffle.get() ? shuffleQueue().next() : this.currentPlaylist.getSongs().get(0));
+            }
         }
     }
 
     public void playSongFromPlaylist(Song song) {
         if (currentPlaylist == null) return;
 
-        int index = currentPlaylist.getSongs().indexOf(song);
-        if (index != -1) {
-            currentTrackIndex = index;
+        if (positionOf(song) != -1) {
             loadSong(song);
             play();
         }
     }
 
     private void loadSong(Song song) {
+        finishFade(); // Skipping during a crossfade cuts it short
+        MediaPlayer prepared = takePrepared(song);
+        setCurrentTrack(song);
+
         if (mediaPlayer != null) {
             mediaPlayer.stop();
             mediaPlayer.dispose();
+            mediaPlayer = null;
         }
 
         try {
-            Media media = new Media(song.getFilePath());
-            mediaPlayer = new MediaPlayer(media);
-
-            mediaPlayer.setOnReady(() -> {
-                currentSong.set(song);
-                isPlaying.set(false);
-                totalDuration.set(mediaPlayer.getMedia().getDuration());
-                // Reset currentTime when a new song is ready
-                currentTime.set(Duration.ZERO);
-            });
+            MediaPlayer player = prepared != null ? prepared : new MediaPlayer(new Media(song.getFilePath()));
+            player.setVolume(volume);
+            attach(player, song);
+        } catch (Exception e) {
+            System.err.println("Error loading song: " + song.getFilePath());
+            e.printStackTrace();
+        }
+    }
 
-            mediaPlayer.currentTimeProperty().addListener((obs, oldTime, newTime) -> {
-                if (newTime != null) {
-                    currentTime.set(newTime);
+    // Makes a player the current one and wires it to the engine's state
+    private void attach(MediaPlayer player, Song song) {
+        mediaPlayer = player;
+
+        Runnable onReady = () -> {
+            currentSong.set(song);
+            totalDuration.set(player.getMedia().getDuration());
+            // Reset currentTime when a new song is ready
+            currentTime.set(Duration.ZERO);
+        };
+        if (player.getStatus() == MediaPlayer.Status.READY) {
+            onReady.run(); // Prepared ahead, so it won't fire again
+        } else {
+            player.setOnReady(onReady);
+        }
+
+        player.currentTimeProperty().addListener((obs, oldTime, newTime) -> {
+            if (newTime != null && player == mediaPlayer) {
+                currentTime.set(newTime);
+                prepareNextIfEnding(player, newTime);
+                crossfadeIfEnding(player, song, newTime);
+            }
+        });
+
+        player.setOnEndOfMedia(() -> {
+            if (player != mediaPlayer) {
+                return; // Faded out; finishFade releases it
+            }
+            long endedAt = System.nanoTime();
+            if (isRepeat.get()) {
+                discardPrepared();
+                player.seek(Duration.ZERO);
+                player.play();
+            } else {
+                MediaPlayer waiting = preparedPlayer;
+                playNextSong();
+                if (mediaPlayer != player && isPlaying.get()) {
+                    measureSwitch(mediaPlayer, endedAt, waiting != null && mediaPlayer == waiting);
                 }
-            });
+            }
+            // After moving on, since counting the play can reorder the playlist
+            if (onPlayed != null) {
+                onPlayed.accept(song);
+            }
+        });
 
-            mediaPlayer.setOnEndOfMedia(() -> {
-                if (isRepeat.get()) {
-                    mediaPlayer.seek(Duration.ZERO);
-                    play();
-                } else {
-                    playNextSong();
+        player.setOnError(() -> {
+            if (player != mediaPlayer) {
+                return;
+            }
+            System.err.println("MediaPlayer Error: " + player.getError());
+            next(); // Try to play the next song
+        });
+    }
+
+    private void setCurrentTrack(Song song) {
+        currentTrack = song;
+        currentPosition = positionOf(song);
+        if (isShuffle.get()) {
+            shuffleQueue().moveTo(song);
+        }
+    }
+
+    // The prepared player if it is for this song; any other is released
+    private MediaPlayer takePrepared(Song song) {
+        MediaPlayer prepared = null;
+        if (preparedPlayer != null && preparedSong == song) {
+            prepared = preparedPlayer;
+            preparedPlayer = null;
+        }
+        discardPrepared();
+        return prepared;
+    }
+
+    // Starts opening the next song's player once the current one is about to end
+    private void prepareNextIfEnding(MediaPlayer player, Duration time) {
+        Duration total = player.getTotalDuration();
+        // Repeating restarts the same player, unless it fades into a new one
+        if (preparedSong != null || (isRepeat.get() && !isCrossfading()) || !isPlaying.get()
+                || total == null || total.isUnknown() || total.isIndefinite()
+                || total.subtract(time).greaterThan(PRELOAD_AHEAD.add(crossfade))) {
+            return;
+        }
+        Song next = isRepeat.get() ? currentTrack : upcomingSong();
+        if (next == null) {
+            return;
+        }
+        preparedSong = next;
+        long number = ++preparation;
+        // Opening the file blocks, so it happens off the FX thread
+        preparer.execute(() -> {
+            MediaPlayer prepared;
+            try {
+                prepared = new MediaPlayer(new Media(next.getFilePath()));
+            } catch (Exception e) {
+                // Loading it the usual way will report the error, if it happens again
+                return;
+            }
+            Platform.runLater(() -> {
+                if (number != preparation) {
+                    prepared.dispose(); // Something else plays next now
+                    return;
                 }
+                prepared.setOnError(() -> {
+                    if (preparedPlayer == prepared) {
+                        discardPrepared();
+                    }
+                });
+                preparedPlayer = prepared;
             });
+        });
+    }
 
-            mediaPlayer.setOnError(() -> {
-                System.err.println("MediaPlayer Error: " + mediaPlayer.getError());
-                next(); // Try to play the next song
-            });
+    /**
+     * Fades from the current song into the prepared one once the current one
+     * is within the crossfade of its end. Both play at once while a single
+     * timeline ramps their volumes; the old one is released when it is done.
+     */
+    private void crossfadeIfEnding(MediaPlayer player, Song song, Duration time) {
+        if (!isCrossfading() || fade != null || !isPlaying.get() || preparedPlayer == null
+                || preparedPlayer.getStatus() != MediaPlayer.Status.READY) {
+            return;
+        }
+        Duration remaining = player.getTotalDuration().subtract(time);
+        if (remaining.greaterThan(crossfade)) {
+            return;
+        }
+        Song next = preparedSong;
+        if (positionOf(next) < 0) {
+            discardPrepared(); // Gone from the playlist since it was prepared
+            return;
+        }
+        MediaPlayer incoming = takePrepared(next);
+        setCurrentTrack(next);
+        fadingPlayer = player;
+        incoming.setVolume(0);
+        attach(incoming, next);
+        incoming.play();
+
+        Duration length = remaining.greaterThan(Duration.ONE) ? remaining : Duration.ONE;
+        fade = new Timeline(
+                new KeyFrame(Duration.ZERO,
+                        new KeyValue(player.volumeProperty(), volume),
+                        new KeyValue(incoming.volumeProperty(), 0)),
+                new KeyFrame(length,
+                        new KeyValue(player.volumeProperty(), 0),
+                        new KeyValue(incoming.volumeProperty(), volume)));
+        fade.setOnFinished(e -> finishFade());
+        fade.play();
+
+        if (onPlayed != null) {
+            onPlayed.accept(song);
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error loading song: " + song.getFilePath());
-            e.printStackTrace();
+    // Ends a crossfade, if one is running: releases the old player and puts the new one at full volume
+    private void finishFade() {
+        if (fade != null) {
+            fade.stop();
+            fade = null;
+        }
+        if (fadingPlayer != null) {
+            fadingPlayer.stop();
+            fadingPlayer.dispose();
+            fadingPlayer = null;
+            if (mediaPlayer != null) {
+                mediaPlayer.setVolume(volume);
+            }
+        }
+    }
+
+    private boolean isCrossfading() {
+        return crossfade.greaterThan(Duration.ZERO);
+    }
+
+    private void discardPrepared() {
+        preparation++;
+        preparedSong = null;
+        if (preparedPlayer != null) {
+            preparedPlayer.dispose();
+            preparedPlayer = null;
+        }
+    }
+
+    // Records how long the switch took, once the next player is actually playing
+    private void measureSwitch(MediaPlayer next, long endedAt, boolean preloaded) {
+        lastSwitchPreloaded = preloaded;
+        if (next.getStatus() == MediaPlayer.Status.PLAYING) {
+            switchLatency.set(Duration.millis((System.nanoTime() - endedAt) / 1e6));
+            return;
+        }
+        next.statusProperty().addListener(new ChangeListener<>() {
+            @Override
+            public void changed(ObservableValue<? extends MediaPlayer.Status> obs,
+                                MediaPlayer.Status oldStatus, MediaPlayer.Status newStatus) {
+                if (newStatus == MediaPlayer.Status.PLAYING) {
+                    switchLatency.set(Duration.millis((System.nanoTime() - endedAt) / 1e6));
+                }
+                if (newStatus != MediaPlayer.Status.READY && newStatus != MediaPlayer.Status.UNKNOWN) {
+                    next.statusProperty().removeListener(this);
+                }
+            }
+        });
+    }
+
+    /**
+     * The song to play after the current one, or null at the end of the
+     * playlist. With shuffle on, it is the shuffle queue's next song, which
+     * stays the same until it has been played.
+     */
+    private Song upcomingSong() {
+        if (currentPlaylist == null || currentPlaylist.getSongs().isEmpty()) {
+            return null;
+        }
+        if (isShuffle.get()) {
+            return shuffleQueue().peekNext();
+        }
+        int next = positionAfterCurrent();
+        return next < currentPlaylist.getSongs().size() ? currentPlaylist.getSongs().get(next) : null;
+    }
+
+    // If the current song has left the list, the song that took its place comes next
+    private int positionAfterCurrent() {
+        int position = positionOf(currentTrack);
+        return position >= 0 ? position + 1 : Math.max(currentPosition, 0);
+    }
+
+    // Where a song is in the playlist, or -1; replaces a linear indexOf
+    private int positionOf(Song song) {
+        if (song == null || currentPlaylist == null) {
+            return -1;
+        }
+        if (positionsStale) {
+            positions.clear();
+            ObservableList<Song> songs = currentPlaylist.getSongs();
+            // Backwards, so a song listed twice maps to its first position like indexOf
+            for (int i = songs.size() - 1; i >= 0; i--) {
+                positions.put(songs.get(i), i);
+            }
+            positionsStale = false;
+        }
+        Integer position = positions.get(song);
+        return position != null ? position : -1;
+    }
+
+    private ShuffleQueue shuffleQueue() {
+        if (shuffleQueue == null) {
+            shuffleQueue = new ShuffleQueue(currentPlaylist.getSongs(), random);
+            if (currentTrack != null) {
+                shuffleQueue.moveTo(currentTrack);
+            }
+        }
+        return shuffleQueue;
+    }
+
+    private void dropShuffleQueue() {
+        if (shuffleQueue != null) {
+            shuffleQueue.detach();
+            shuffleQueue = null;
         }
     }
 
@@ -116,6 +411,7 @@ public class PlayerEngine {
     }
 
     public void pause() {
+        finishFade();
         if (mediaPlayer != null) {
             mediaPlayer.pause();
             isPlaying.set(false);
@@ -123,6 +419,7 @@ public class PlayerEngine {
     }
 
     public void stop() {
+        finishFade();
         if (mediaPlayer != null) {
             mediaPlayer.stop();
             isPlaying.set(false);
@@ -132,22 +429,19 @@ public class PlayerEngine {
     private void playNextSong() {
         if (currentPlaylist == null || currentPlaylist.getSongs().isEmpty()) return;
 
+        Song next;
         if (isShuffle.get()) {
-            currentTrackIndex = new Random().nextInt(currentPlaylist.getSongs().size());
+            next = shuffleQueue().next();
         } else { // Not shuffle
-            if (currentTrackIndex + 1 >= currentPlaylist.getSongs().size()) { // End of playlist
+            next = upcomingSong();
+            if (next == null) { // End of playlist
                 stop();
                 // Set player to beginning of playlist but don't play
-                currentTrackIndex = 0;
-                if (!currentPlaylist.getSongs().isEmpty()) {
-                    loadSong(currentPlaylist.getSongs().get(currentTrackIndex));
-                }
+                loadSong(currentPlaylist.getSongs().get(0));
                 return;
-            } else {
-                currentTrackIndex++;
             }
         }
-        loadSong(currentPlaylist.getSongs().get(currentTrackIndex));
+        loadSong(next);
         play();
     }
 
@@ -158,17 +452,28 @@ public class PlayerEngine {
     public void previous() {
         if (currentPlaylist == null || currentPlaylist.getSongs().isEmpty()) return;
 
+        Song previous;
         if (isShuffle.get()) {
-            // In shuffle mode, previous plays another random song
-            playNextSong();
+            // Back through the songs shuffle played; before the first, restart it
+            previous = shuffleQueue().previous();
+            if (previous == null) {
+                previous = currentTrack;
+            }
         } else {
-            currentTrackIndex = (currentTrackIndex - 1 + currentPlaylist.getSongs().size()) % currentPlaylist.getSongs().size();
-            loadSong(currentPlaylist.getSongs().get(currentTrackIndex));
+            int size = currentPlaylist.getSongs().size();
+            int position = positionOf(currentTrack);
+            int before = (position >= 0 ? position : Math.min(currentPosition, size)) - 1;
+            previous = currentPlaylist.getSongs().get((before + size) % size);
+        }
+        if (previous != null) {
+            loadSong(previous);
             play();
         }
     }
 
     public void setVolume(double volume) {
+        this.volume = volume; // For players created later
+        finishFade(); // Its ramp was computed for the old volume
         if (mediaPlayer != null) {
             mediaPlayer.setVolume(volume);
         }
@@ -203,17 +508,39 @@ public class PlayerEngine {
     }
 
     public void seek(Duration duration) {
+        finishFade();
         if (mediaPlayer != null) {
             mediaPlayer.seek(duration);
         }
     }
 
+    /**
+     * How long the last automatic move to the next song took, from the end
+     * of one song until the next was playing. UNKNOWN until a song has ended.
+     */
+    public ReadOnlyObjectProperty<Duration> switchLatencyProperty() {
+        return switchLatency.getReadOnlyProperty();
+    }
+
+    /** True if the last automatic move to the next song used a player prepared ahead. */
+    public boolean isLastSwitchPreloaded() {
+        return lastSwitchPreloaded;
+    }
+
     public ReadOnlyBooleanProperty isShuffleProperty() {
         return isShuffle.getReadOnlyProperty();
     }
 
     public void toggleShuffle() {
         isShuffle.set(!isShuffle.get());
+        discardPrepared(); // It was picked for the other mode
+        if (isShuffle.get()) {
+            if (currentPlaylist != null && currentTrack != null) {
+                shuffleQueue().moveTo(currentTrack);
+            }
+        } else {
+            dropShuffleQueue(); // Shuffling again starts a fresh order
+        }
     }
 
     public ReadOnlyBooleanProperty isRepeatProperty() {
@@ -222,5 +549,39 @@ public class PlayerEngine {
 
     public void toggleRepeat() {
         isRepeat.set(!isRepeat.get());
+        discardPrepared(); // Repeating prepares the same song again, if anything
+    }
+
+    /**
+     * Sets how long songs overlap when one moves on to the next, or
+     * Duration.ZERO to play them back to back. Skipping, pausing or seeking
+     * during a crossfade ends it right away.
+     */
+    public void setCrossfade(Duration crossfade) {
+        this.crossfade = crossfade == null || crossfade.lessThan(Duration.ZERO) ? Duration.ZERO : crossfade;
+        discardPrepared(); // May have been prepared too late for the new length
+    }
+
+    public Duration getCrossfade() {
+        return crossfade;
+    }
+
+    /**
+     * Stops playback and releases every native player, including one being
+     * faded out or prepared. Call when the app exits.
+     */
+    public void close() {
+        finishFade();
+        discardPrepared();
+        dropShuffleQueue();
+        if (currentPlaylist != null) {
+            currentPlaylist.getSongs().removeListener(positionsInvalidator);
+        }
+        if (mediaPlayer != null) {
+            mediaPlayer.dispose();
+            mediaPlayer = null;
+        }
+        isPlaying.set(false);
+        preparer.shutdownNow();
     }
 }
@@ -0,0 +1,168 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.MusicLibrary;
+import com.musicplayer.model.Song;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads and writes playlists in the formats other players use: M3U, M3U8
+ * and PLS. Files are read and written line by line, and entries are looked
+ * up in the library by file URI, so large playlists load quickly.
+ */
+public final class PlaylistFiles {
+    public enum Format { M3U, M3U8, PLS }
+
+    private PlaylistFiles() {
+    }
+
+    /** The format a file name implies; anything unknown is written as M3U8. */
+    public static Format formatOf(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".pls")) {
+            return Format.PLS;
+        }
+        return name.endsWith(".m3u") ? Format.M3U : Format.M3U8;
+    }
+
+    // M3U has no declared encoding; players write it in the platform charset
+    private static Charset charsetOf(Format format) {
+        return format == Format.M3U ? Charset.defaultCharset() : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Reads a playlist file and finds its entries in the library.
+     * Doesn't change the library, so it can run on any thread; add the
+     * songs to a playlist on the FX thread, e.g. with UserPlaylist.addSongs.
+     */
+    public static PlaylistImport read(File file, MusicLibrary library) throws IOException {
+        long start = System.nanoTime();
+        Format format = formatOf(file);
+        Path baseDir = file.getAbsoluteFile().toPath().getParent();
+        List<Song> songs = new ArrayList<>();
+        List<String> unresolved = new ArrayList<>();
+        // PLS entries are numbered, and the numbers decide the order
+        Map<Integer, String> numbered = new TreeMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), charsetOf(format))) {
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (first && line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                first = false;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (format == Format.PLS) {
+                    int equals = line.indexOf('=');
+                    if (equals > 4 && line.regionMatches(true, 0, "File", 0, 4)) {
+                        try {
+                            numbered.put(Integer.parseInt(line.substring(4, equals).trim()), line.substring(equals + 1).trim());
+                        } catch (NumberFormatException e) {
+                            // Not an entry line
+                        }
+                    }
+                } else if (!line.startsWith("#")) {
+                    resolveInto(line, baseDir, library, songs, unresolved);
+                }
+            }
+        }
+        for (String entry : numbered.values()) {
+            resolveInto(entry, baseDir, library, songs, unresolved);
+        }
+        return new PlaylistImport(songs, unresolved, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void resolveInto(String entry, Path baseDir, MusicLibrary library, List<Song> songs, List<String> unresolved) {
+        Song song = resolve(entry, baseDir, library);
+        if (song != null) {
+            songs.add(song);
+        } else {
+            unresolved.add(entry);
+        }
+    }
+
+    // Turns an entry into a file URI the way the scanner does and looks it up
+    private static Song resolve(String entry, Path baseDir, MusicLibrary library) {
+        String uri;
+        if (entry.regionMatches(true, 0, "file:", 0, 5)) {
+            Song song = library.getSongByPath(entry);
+            if (song != null) {
+                return song;
+            }
+            try {
+                uri = Paths.get(URI.create(entry)).toUri().toString();
+            } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+                return null;
+            }
+        } else if (entry.contains("://")) {
+            return null; // Streams and other remote entries can't be in the library
+        } else {
+            try {
+                Path path = Paths.get(entry.replace('\\', '/'));
+                uri = (baseDir != null ? baseDir.resolve(path) : path).normalize().toUri().toString();
+            } catch (InvalidPathException e) {
+                return null;
+            }
+        }
+        return library.getSongByPath(uri);
+    }
+
+    /**
+     * Writes songs as a playlist file in the format its name implies, with
+     * absolute paths. Call on the FX thread, or with a copy of the songs.
+     */
+    public static void write(List<Song> songs, File file) throws IOException {
+        Format format = formatOf(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), charsetOf(format))) {
+            if (format == Format.PLS) {
+                writer.write("[playlist]\n");
+                for (int i = 0; i < songs.size(); i++) {
+                    Song song = songs.get(i);
+                    int number = i + 1;
+                    writer.write("File" + number + "=" + pathOf(song) + "\n");
+                    writer.write("Title" + number + "=" + displayName(song) + "\n");
+                    writer.write("Length" + number + "=-1\n");
+                }
+                writer.write("NumberOfEntries=" + songs.size() + "\n");
+                writer.write("Version=2\n");
+            } else {
+                writer.write("#EXTM3U\n");
+                for (Song song : songs) {
+                    writer.write("#EXTINF:-1," + displayName(song) + "\n");
+                    writer.write(pathOf(song) + "\n");
+                }
+            }
+        }
+    }
+
+    private static String pathOf(Song song) {
+        try {
+            return Paths.get(URI.create(song.getFilePath())).toString();
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return song.getFilePath();
+        }
+    }
+
+    private static String displayName(Song song) {
+        return (song.getArtist() + " - " + song.getTitle()).replace('\n', ' ');
+    }
+}
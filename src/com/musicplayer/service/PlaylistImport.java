@@ -0,0 +1,44 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.Song;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What reading a playlist file found: the library songs its entries
+ * resolved to, in file order, and the entries that matched no song.
+ */
+public class PlaylistImport {
+    private final List<Song> songs;
+    private final List<String> unresolved;
+    private final long elapsedMillis;
+
+    PlaylistImport(List<Song> songs, List<String> unresolved, long elapsedMillis) {
+        this.songs = Collections.unmodifiableList(songs);
+        this.unresolved = Collections.unmodifiableList(unresolved);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    /** Entries as written in the file, for songs that aren't in the library. */
+    public List<String> getUnresolved() {
+        return unresolved;
+    }
+
+    public int getEntryCount() {
+        return songs.size() + unresolved.size();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d entries found in the library (%d ms)",
+                songs.size(), getEntryCount(), elapsedMillis);
+    }
+}
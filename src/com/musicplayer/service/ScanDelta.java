@@ -0,0 +1,51 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.Song;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes a finished scan applied to the library.
+ */
+public class ScanDelta {
+    private final List<Song> added;
+    private final List<Song> updated;
+    private final List<String> removed;
+    private final Map<String, String> moved;
+
+    ScanDelta(List<Song> added, List<Song> updated, List<String> removed, Map<String, String> moved) {
+        this.added = Collections.unmodifiableList(added);
+        this.updated = Collections.unmodifiableList(updated);
+        this.removed = Collections.unmodifiableList(removed);
+        this.moved = Collections.unmodifiableMap(moved);
+    }
+
+    public List<Song> getAdded() {
+        return added;
+    }
+
+    public List<Song> getUpdated() {
+        return updated;
+    }
+
+    /** File URIs of songs whose files no longer exist. */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /** New file URIs of moved or renamed songs, by their old URIs. */
+    public Map<String, String> getMoved() {
+        return moved;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty() && moved.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d added, %d updated, %d moved, %d removed",
+                added.size(), updated.size(), moved.size(), removed.size());
+    }
+}
@@ -0,0 +1,208 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.Song;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handle for a running library scan.
+ * Exposes progress counters and allows the scan to be cancelled.
+ */
+public class ScanTask {
+    private final Path root;
+    private final ExecutorService workers;
+    private final Semaphore probePermits;
+    private final Phaser pendingProbes;
+
+    private final AtomicLong discovered = new AtomicLong();
+    private final AtomicLong probed = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Sizes of the collections below, so progress can be read without walking or locking them
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    private final Queue<Song> addedSongs = new ConcurrentLinkedQueue<>();
+    private final Queue<Song> updatedSongs = new ConcurrentLinkedQueue<>();
+    private final List<String> removedPaths = new ArrayList<>();
+    private final Map<String, String> movedPaths = new LinkedHashMap<>(); // Guarded by removedPaths
+    private volatile ScanDelta delta;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private volatile boolean done;
+
+    ScanTask(Path root, ExecutorService workers, int maxInFlight) {
+        this.root = root;
+        this.workers = workers;
+        this.probePermits = new Semaphore(maxInFlight);
+        // The walker itself is registered so the phaser can't advance before the walk ends.
+        this.pendingProbes = new Phaser(1);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public long getDiscovered() {
+        return discovered.get();
+    }
+
+    public long getProbed() {
+        return probed.get();
+    }
+
+    public long getAdded() {
+        return added.get();
+    }
+
+    public long getUpdated() {
+        return updated.get();
+    }
+
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    public long getMoved() {
+        return moved.get();
+    }
+
+    public long getRemoved() {
+        return removed.get();
+    }
+
+    /** Files skipped because the same audio is already in the library under another path. */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * The songs added, updated and removed by this scan, or null while it is still running.
+     */
+    public ScanDelta getDelta() {
+        return delta;
+    }
+
+    /**
+     * Stops walking and drops any probes that haven't started yet.
+     * Probes already in flight finish, but their songs are not added.
+     */
+    public void cancel() {
+        if (cancelled.compareAndSet(false, true)) {
+            // Probes that were queued but never ran still hold a permit and a phaser slot.
+            for (Runnable ignored : workers.shutdownNow()) {
+                endProbe();
+            }
+        }
+    }
+
+    // --- Used by LibraryScanner ---
+
+    ExecutorService getWorkers() {
+        return workers;
+    }
+
+    void beginProbe() throws InterruptedException {
+        probePermits.acquire();
+        pendingProbes.register();
+    }
+
+    void endProbe() {
+        probePermits.release();
+        pendingProbes.arriveAndDeregister();
+    }
+
+    void awaitProbes() {
+        pendingProbes.arriveAndAwaitAdvance();
+    }
+
+    void markDiscovered() {
+        discovered.incrementAndGet();
+    }
+
+    void markProbed() {
+        probed.incrementAndGet();
+    }
+
+    void markAdded(Song song) {
+        addedSongs.add(song);
+        added.incrementAndGet();
+    }
+
+    void markUpdated(Song song) {
+        updatedSongs.add(song);
+        updated.incrementAndGet();
+    }
+
+    void markUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void markDuplicate() {
+        duplicates.incrementAndGet();
+    }
+
+    void markRemoved(List<String> filePaths) {
+        synchronized (removedPaths) {
+            removedPaths.addAll(filePaths);
+            removed.addAndGet(filePaths.size());
+        }
+    }
+
+    void markMoved(String oldPath, String newPath) {
+        synchronized (removedPaths) {
+            if (movedPaths.put(oldPath, newPath) == null) {
+                moved.incrementAndGet();
+            }
+        }
+    }
+
+    boolean wasMovedFrom(String filePath) {
+        synchronized (removedPaths) {
+            return movedPaths.containsKey(filePath);
+        }
+    }
+
+    void markFailed() {
+        failed.incrementAndGet();
+    }
+
+    void markDone() {
+        synchronized (removedPaths) {
+            delta = new ScanDelta(new ArrayList<>(addedSongs), new ArrayList<>(updatedSongs), new ArrayList<>(removedPaths),
+                    new LinkedHashMap<>(movedPaths));
+        }
+        done = true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d found, %d read, %d added, %d updated, %d moved, %d removed, %d duplicates, %d failed",
+                getDiscovered(), getProbed(), getAdded(), getUpdated(), getMoved(), getRemoved(), getDuplicates(), getFailed());
+    }
+}
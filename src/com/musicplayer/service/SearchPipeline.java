@@ -0,0 +1,128 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.SearchResult;
+import javafx.application.Platform;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs the searches for one view on a background thread.
+ *
+ * A query waits briefly for the next keystroke before it runs, a newer
+ * query cancels an older one whether it has started or not, and only the
+ * latest query's result is handed to the view, on the FX thread. Reruns
+ * after library changes never cancel a search; they are folded into the
+ * one already waiting, so a busy scan can't keep results from arriving.
+ */
+public class SearchPipeline {
+    private static final long DEBOUNCE_MS = 150;
+
+    private final Function<String, SearchResult> search;
+    private final Consumer<SearchResult> onResult;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(LibraryScanner.daemonThreads("noiz-search"));
+    // Number of the latest query; results of any other are dropped
+    private final AtomicLong latest = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    // FX thread only
+    private String query = "";
+    private ScheduledFuture<?> pending;
+    private AtomicBoolean pendingStarted = new AtomicBoolean(true);
+
+    /**
+     * search runs on the background thread and returns the matching songs,
+     * or null for all songs, like MusicLibrary.search. onResult receives the
+     * result of the latest query on the FX thread.
+     */
+    public SearchPipeline(Function<String, SearchResult> search, Consumer<SearchResult> onResult) {
+        this.search = search;
+        this.onResult = onResult;
+    }
+
+    /** Starts searching for a new query, replacing any earlier one. Call on the FX thread. */
+    public void submit(String query) {
+        this.query = query == null ? "" : query;
+        long number = latest.incrementAndGet();
+        if (pending != null && !pending.isDone() && pending.cancel(true)) {
+            cancelled.incrementAndGet();
+        }
+        if (this.query.isBlank()) {
+            // Showing everything again needs no search, so don't make it wait
+            pending = null;
+            published.incrementAndGet();
+            onResult.accept(null);
+            return;
+        }
+        schedule(number, query);
+    }
+
+    /** Runs the current query again, e.g. after the library changed. Call on the FX thread. */
+    public void rerun() {
+        if (query.isBlank() || !pendingStarted.get()) {
+            return; // A search that hasn't started yet will see the change anyway
+        }
+        // Let a running search finish; the single search thread runs this one after it
+        schedule(latest.get(), query);
+    }
+
+    private void schedule(long number, String text) {
+        AtomicBoolean started = new AtomicBoolean();
+        pendingStarted = started;
+        pending = executor.schedule(() -> {
+            started.set(true);
+            run(number, text);
+        }, DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(long number, String text) {
+        SearchResult result;
+        try {
+            result = search.apply(text);
+        } catch (RuntimeException e) {
+            System.err.println("Search failed for: " + text);
+            e.printStackTrace();
+            return;
+        }
+        if (latest.get() != number) {
+            return; // Superseded while running
+        }
+        Platform.runLater(() -> {
+            // A newer query may have arrived while this waited for the FX thread
+            if (latest.get() == number) {
+                published.incrementAndGet();
+                onResult.accept(result);
+            }
+        });
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /** Number of results handed to the view. */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /** Number of queries dropped because a newer one arrived first. */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d results shown, %d queries cancelled", published.get(), cancelled.get());
+    }
+}
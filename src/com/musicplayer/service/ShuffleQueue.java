@@ -0,0 +1,274 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.Song;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The shuffled play order of a song list: every song once, in random order,
+ * before any song comes again.
+ *
+ * The order is a Fisher-Yates shuffle drawn one song at a time, so nothing
+ * is shuffled ahead of need. The songs drawn so far are the history, and a
+ * cursor moves back and forth through it, so previous and next are O(1) and
+ * always give the same songs. The queue follows changes to the list: added
+ * songs join the undrawn ones, removed songs drop out, and re-sorting the
+ * list changes nothing. A song that is in the list more than once is only
+ * shuffled once. Only use it on the FX thread.
+ */
+final class ShuffleQueue {
+    private final ObservableList<Song> songs;
+    private final Random random;
+    private final ListChangeListener<Song> listener = this::onSongsChanged;
+
+    // Slots [0, drawn) are the history in play order, with null where a song
+    // was removed; slots [drawn, size) are the songs not drawn yet
+    private Song[] slots;
+    private int size;
+    private int drawn;
+    private int removedDrawn; // Null slots in the history
+    private int cursor = -1; // Slot of the current song, -1 before the first
+    // The song peekNext() picked, kept until it is moved to. It is undrawn,
+    // or, if it opens the next round, anywhere in the list.
+    private Song peeked;
+    private boolean peekedStartsRound;
+    private final Map<Song, Integer> slotBySong = new IdentityHashMap<>();
+
+    ShuffleQueue(ObservableList<Song> songs, Random random) {
+        this.songs = songs;
+        this.random = random;
+        this.slots = new Song[Math.max(16, songs.size())];
+        for (Song song : songs) {
+            append(song);
+        }
+        songs.addListener(listener);
+    }
+
+    /** Stops following the list. */
+    void detach() {
+        songs.removeListener(listener);
+    }
+
+    /** The current song, or null before the first one. */
+    Song current() {
+        return cursor >= 0 && cursor < drawn ? slots[cursor] : null;
+    }
+
+    /**
+     * The song next() will return, without moving to it, or null if the list
+     * is empty. It stays the same until it is moved to or leaves the list.
+     * Once every song has been drawn, it is the first song of a new round,
+     * but the round only starts, and the old history is only forgotten,
+     * when it is moved to.
+     */
+    Song peekNext() {
+        int slot = nextHistorySlot();
+        if (slot < drawn) {
+            return slots[slot];
+        }
+        if (peeked != null && peekedStartsRound && drawn < size) {
+            peeked = null; // Songs were added, so this round isn't over after all
+        }
+        if (peeked == null) {
+            if (drawn < size) {
+                // One step of Fisher-Yates, taken when the song is moved to
+                peeked = slots[drawn + random.nextInt(size - drawn)];
+                peekedStartsRound = false;
+            } else {
+                if (size - removedDrawn == 0) {
+                    return null;
+                }
+                compact();
+                int pick = random.nextInt(size);
+                if (slots[pick] == current() && size > 1) {
+                    // Don't open a round with the song that closed the last one
+                    pick = (pick + 1) % size;
+                }
+                peeked = slots[pick];
+                peekedStartsRound = true;
+            }
+        }
+        return peeked;
+    }
+
+    /** Moves to the next song and returns it, or null if the list is empty. */
+    Song next() {
+        Song next = peekNext();
+        if (next != null) {
+            moveTo(next);
+        }
+        return next;
+    }
+
+    /** Moves back to the song played before the current one, or returns null if there is none. */
+    Song previous() {
+        int slot = cursor - 1;
+        while (slot >= 0 && slots[slot] == null) {
+            slot--;
+        }
+        if (slot < 0) {
+            return null;
+        }
+        cursor = slot;
+        return slots[slot];
+    }
+
+    /**
+     * Makes a song the current one, e.g. when it was picked by hand. A song
+     * not drawn yet is drawn now, after the rest of the history.
+     */
+    void moveTo(Song song) {
+        if (!slotBySong.containsKey(song)) {
+            return;
+        }
+        if (song == peeked) {
+            if (peekedStartsRound) {
+                startRound();
+            }
+            peeked = null;
+        }
+        int slot = slotBySong.get(song);
+        if (slot >= drawn) {
+            swap(slot, drawn);
+            slot = drawn++;
+        }
+        cursor = slot;
+    }
+
+    // First slot after the cursor that still holds a song, or drawn if none
+    private int nextHistorySlot() {
+        int slot = cursor + 1;
+        while (slot < drawn && slots[slot] == null) {
+            slot++;
+        }
+        return slot;
+    }
+
+    // Every song is undrawn again, and the history starts over
+    private void startRound() {
+        compact();
+        drawn = 0;
+        cursor = -1;
+    }
+
+    private void swap(int a, int b) {
+        Song first = slots[a];
+        Song second = slots[b];
+        slots[a] = second;
+        slots[b] = first;
+        slotBySong.put(second, a);
+        slotBySong.put(first, b);
+        if (cursor == a) {
+            cursor = b;
+        } else if (cursor == b) {
+            cursor = a;
+        }
+    }
+
+    private void append(Song song) {
+        if (slotBySong.containsKey(song)) {
+            return;
+        }
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        slots[size] = song;
+        slotBySong.put(song, size);
+        size++;
+    }
+
+    private void remove(Song song) {
+        Integer slot = slotBySong.remove(song);
+        if (slot == null) {
+            return;
+        }
+        if (song == peeked) {
+            peeked = null;
+        }
+        if (slot < drawn) {
+            // Keep the history in order; the gap is skipped and compacted later
+            slots[slot] = null;
+            removedDrawn++;
+            if (removedDrawn > 32 && removedDrawn > drawn / 2) {
+                compact();
+            }
+            return;
+        }
+        // Undrawn songs have no order, so the last one fills the gap
+        int last = size - 1;
+        if (slot != last) {
+            slots[slot] = slots[last];
+            slotBySong.put(slots[slot], slot);
+        }
+        slots[last] = null;
+        size--;
+    }
+
+    // Closes the gaps in the history, keeping its order and the current song
+    private void compact() {
+        int to = 0;
+        int newCursor = -1;
+        int newDrawn = -1;
+        for (int from = 0; from < size; from++) {
+            Song song = slots[from];
+            if (from == drawn) {
+                newDrawn = to;
+            }
+            if (from == cursor) {
+                newCursor = song != null ? to : to - 1;
+            }
+            if (song != null) {
+                slots[to] = song;
+                slotBySong.put(song, to);
+                to++;
+            }
+        }
+        Arrays.fill(slots, to, size, null);
+        drawn = newDrawn >= 0 ? newDrawn : to;
+        size = to;
+        cursor = newCursor;
+        removedDrawn = 0;
+    }
+
+    private void onSongsChanged(ListChangeListener.Change<? extends Song> change) {
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue; // Re-sorting doesn't change the shuffled order
+            }
+            List<? extends Song> added = change.wasAdded() ? change.getAddedSubList() : List.of();
+            if (change.wasRemoved() && added.isEmpty() && change.getList().isEmpty()) {
+                Arrays.fill(slots, null);
+                slotBySong.clear();
+                size = drawn = removedDrawn = 0;
+                cursor = -1;
+                peeked = null;
+                continue;
+            }
+            if (change.wasRemoved()) {
+                // A song replaced by itself was only updated
+                Set<Song> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+                kept.addAll(added);
+                for (Song song : change.getRemoved()) {
+                    if (!kept.contains(song)) {
+                        remove(song);
+                    }
+                }
+            }
+            for (Song song : added) {
+                append(song);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d songs, %d played this round", size - removedDrawn, drawn - removedDrawn);
+    }
+}
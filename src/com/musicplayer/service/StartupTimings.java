@@ -0,0 +1,46 @@
+package com.musicplayer.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long each startup phase took, measured from JVM start,
+ * so startup regressions show up as numbers instead of impressions.
+ */
+public class StartupTimings {
+    private final long jvmStartMillis;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    public StartupTimings() {
+        this.jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+
+    /**
+     * Records that a phase has finished. Only the first mark of a phase counts.
+     */
+    public synchronized void mark(String phase) {
+        phases.putIfAbsent(phase, System.currentTimeMillis() - jvmStartMillis);
+    }
+
+    /** Milliseconds from JVM start to the end of the phase, or -1 if it hasn't finished. */
+    public synchronized long getMillis(String phase) {
+        return phases.getOrDefault(phase, -1L);
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("Startup:");
+        long previous = 0;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            sb.append(String.format(" %s %d ms (+%d),", phase.getKey(), phase.getValue(), phase.getValue() - previous));
+            previous = phase.getValue();
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package com.musicplayer;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs test code on the FX thread, starting the toolkit on first use.
+ * Without a display, run the tests with Monocle's headless platform.
+ */
+public final class FxThread {
+    private static final long TIMEOUT_MS = 10_000;
+    private static boolean started;
+
+    private FxThread() {
+    }
+
+    private static synchronized void start() {
+        if (started) {
+            return;
+        }
+        try {
+            Platform.startup(() -> { });
+        } catch (IllegalStateException e) {
+            // Already started by another test
+        }
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+
+    /** Runs the code on the FX thread and returns its result, rethrowing what it throws. */
+    public static <T> T call(Callable<T> code) throws Exception {
+        start();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(code.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        try {
+            return result.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw new AssertionError(e.getCause());
+        }
+    }
+
+    public static void run(Runnable code) throws Exception {
+        call(() -> {
+            code.run();
+            return null;
+        });
+    }
+
+    /** Waits until the condition, checked on the FX thread, holds. */
+    public static void waitUntil(BooleanSupplier condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!call(condition::getAsBoolean)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("Condition not met within " + TIMEOUT_MS + " ms");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
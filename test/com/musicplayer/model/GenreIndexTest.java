@@ -0,0 +1,62 @@
+package com.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GenreIndexTest {
+    private final SongList songs = new SongList();
+    private final GenreIndex index = new GenreIndex();
+
+    GenreIndexTest() {
+        songs.addListener(index::onSongsChanged);
+    }
+
+    private static Song song(int id, String genre) {
+        Song song = new Song("file:/music/" + id + ".mp3", "Title " + id, "Artist", "Album", genre, 1, 2, 100 + id);
+        song.setId(id);
+        return song;
+    }
+
+    @Test
+    void caseAndSpacingVariantsShareOneGenre() {
+        Song a = song(0, "Hip Hop");
+        Song b = song(1, "hip  hop ");
+        Song c = song(2, "HIP HOP");
+        Song d = song(3, "Jazz");
+        songs.addAll(List.of(a, b, c, d));
+
+        // Named after the first spelling seen
+        assertEquals(List.of("Hip Hop", "Jazz"), index.drainNewGenres());
+        assertEquals(List.of(a, b, c), index.songsFor("hip hop"));
+        assertEquals(List.of(a, b, c), index.songsFor(" HIP   HOP"));
+        assertEquals(List.of(d), index.songsFor("jazz"));
+        assertTrue(index.songsFor("Blues").isEmpty());
+    }
+
+    @Test
+    void retaggedAndRemovedSongsMoveBetweenGenres() {
+        Song a = song(0, "Rock");
+        Song b = song(1, "Rock");
+        songs.addAll(List.of(a, b));
+        index.drainNewGenres();
+
+        b.updateFrom(song(1, "  jazz"));
+        Set<Song> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        changed.add(b);
+        songs.updated(changed);
+        assertEquals(List.of(a), index.songsFor("Rock"));
+        assertEquals(List.of(b), index.songsFor("Jazz"));
+        assertEquals(List.of("jazz"), index.drainNewGenres());
+
+        songs.remove(a);
+        assertTrue(index.songsFor("rock").isEmpty());
+        assertEquals(List.of(b), index.songsFor("JAZZ"));
+    }
+}
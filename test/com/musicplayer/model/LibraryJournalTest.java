@@ -0,0 +1,120 @@
+package com.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryJournalTest {
+    @TempDir
+    Path dir;
+
+    private static Song song(int id, String name) {
+        Song song = new Song("file:/music/" + name + ".mp3", name, "Artist", "Album", "Rock", 1, 2, 3);
+        song.setId(id);
+        return song;
+    }
+
+    private File snapshotWith(List<Song> songs, long generation) throws IOException {
+        File file = dir.resolve("library.noiz").toFile();
+        UserPlaylist old = new UserPlaylist("Old");
+        old.addSongs(songs);
+        LibrarySnapshot.capture(songs, List.of("/music"), List.of(old), List.of(), generation, songs.size()).write(file);
+        return file;
+    }
+
+    @Test
+    void replayAppliesEveryRecordedChange() throws IOException {
+        Song a = song(0, "a");
+        Song b = song(1, "b");
+        File file = snapshotWith(List.of(a, b), 3);
+
+        LibraryJournal journal = new LibraryJournal(file, 3, () -> { });
+        assertEquals(3, journal.getGeneration());
+        Song c = song(2, "c");
+        c.setAddedAt(99);
+        journal.songPut(c);
+        journal.songRemoved(a.getFilePath());
+        b.setPlayCount(5);
+        journal.songPlayed(b);
+        journal.playlistCreated("New");
+        journal.membersInserted("New", 0, List.of(c, b));
+        journal.membersRemoved("New", 1, 1);
+        journal.playlistRenamed("New", "Renamed");
+        journal.membersReplaced("Old", List.of(b, a));
+        journal.smartPlaylistPut("Loud", "genre:Rock");
+        journal.folderAdded("/more");
+        journal.close();
+
+        LibrarySnapshot replayed = LibraryJournal.replay(file, LibrarySnapshot.read(file));
+        assertEquals(4, replayed.journalGeneration);
+        assertEquals(3, replayed.nextSongId);
+        assertEquals(List.of(b.getFilePath(), c.getFilePath()),
+                replayed.songs.stream().map(Song::getFilePath).collect(Collectors.toList()));
+        Song replayedB = replayed.songs.get(0);
+        Song replayedC = replayed.songs.get(1);
+        assertEquals(5, replayedB.getPlayCount());
+        assertEquals(2, replayedC.getId());
+        assertEquals(99, replayedC.getAddedAt());
+        assertEquals(List.of("/music", "/more"), replayed.scanFolders);
+        assertEquals(Map.of("Loud", "genre:Rock"), replayed.smartPlaylists);
+        assertEquals(2, replayed.playlists.size());
+        assertEquals("Old", replayed.playlists.get(0).name);
+        assertArrayEquals(new int[] {1}, replayed.playlists.get(0).songIds); // a was removed
+        assertEquals("Renamed", replayed.playlists.get(1).name);
+        assertArrayEquals(new int[] {2}, replayed.playlists.get(1).songIds);
+    }
+
+    @Test
+    void replayStopsAtATornRecord() throws IOException {
+        File file = snapshotWith(List.of(song(0, "a")), 0);
+        LibraryJournal journal = new LibraryJournal(file, 0, () -> { });
+        journal.songPut(song(1, "b"));
+        journal.songPut(song(2, "c"));
+        journal.close();
+
+        // Cut the last record short, as a crash in the middle of a write would
+        File journalFile = LibraryJournal.journalFile(file, journal.getGeneration());
+        byte[] bytes = Files.readAllBytes(journalFile.toPath());
+        Files.write(journalFile.toPath(), Arrays.copyOf(bytes, bytes.length - 5), StandardOpenOption.TRUNCATE_EXISTING);
+
+        LibrarySnapshot replayed = LibraryJournal.replay(file, LibrarySnapshot.read(file));
+        assertEquals(List.of("file:/music/a.mp3", "file:/music/b.mp3"),
+                replayed.songs.stream().map(Song::getFilePath).collect(Collectors.toList()));
+    }
+
+    @Test
+    void compactionFoldsTheJournalIntoTheSnapshot() throws IOException {
+        Song a = song(0, "a");
+        File file = snapshotWith(List.of(a), 0);
+        LibraryJournal journal = new LibraryJournal(file, 0, () -> { });
+        long first = journal.getGeneration();
+        Song b = song(1, "b");
+        journal.songPut(b);
+        journal.compact(generation -> LibrarySnapshot.capture(List.of(a, b), List.of("/music"), List.of(), List.of(), generation, 2));
+        Song c = song(2, "c");
+        journal.songPut(c);
+        journal.close();
+
+        assertFalse(LibraryJournal.journalFile(file, first).exists());
+        assertTrue(LibraryJournal.journalFile(file, first + 1).exists());
+        LibrarySnapshot snapshot = LibrarySnapshot.read(file);
+        assertEquals(first + 1, snapshot.journalGeneration);
+        assertEquals(2, snapshot.songs.size());
+        LibrarySnapshot replayed = LibraryJournal.replay(file, snapshot);
+        assertEquals(List.of(0, 1, 2), replayed.songs.stream().map(Song::getId).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,99 @@
+package com.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibrarySnapshotTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void binarySnapshotReadsBackWhatWasWritten() throws IOException {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Song song = new Song("file:/music/" + i + ".mp3", "Title " + i, "Artist " + (i % 3),
+                    i % 5 == 0 ? "" : "Album " + (i % 7), "Genre \u00e9 " + (i % 2), 1000L + i, 2000L + i, 3000L + i);
+            song.setId(i * 2); // IDs with gaps, as after removals
+            song.setAddedAt(4000L + i);
+            song.setPlayCount(i % 4);
+            songs.add(song);
+        }
+        UserPlaylist mix = new UserPlaylist("Mix");
+        mix.addSongs(List.of(songs.get(7), songs.get(3), songs.get(41)));
+        UserPlaylist empty = new UserPlaylist("Empty");
+        SmartPlaylist smart = new SmartPlaylist("Rock", "genre:Rock plays>3 sort:-plays limit:50");
+
+        File file = dir.resolve("library.noiz").toFile();
+        LibrarySnapshot.capture(songs, List.of("/music", "/more music"), List.of(mix, empty), List.of(smart), 17, 120).write(file);
+        assertTrue(LibrarySnapshot.isBinary(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        LibrarySnapshot read = LibrarySnapshot.read(file);
+        assertEquals(17, read.journalGeneration);
+        assertEquals(120, read.nextSongId);
+        assertEquals(List.of("/music", "/more music"), read.scanFolders);
+        assertEquals(songs.size(), read.songs.size());
+        for (int i = 0; i < songs.size(); i++) {
+            assertSameSong(songs.get(i), read.songs.get(i));
+        }
+        assertEquals(2, read.playlists.size());
+        assertEquals("Mix", read.playlists.get(0).name);
+        assertArrayEquals(new int[] {14, 6, 82}, read.playlists.get(0).songIds);
+        assertEquals("Empty", read.playlists.get(1).name);
+        assertEquals(0, read.playlists.get(1).songIds.length);
+        assertEquals(Map.of("Rock", "genre:Rock plays>3 sort:-plays limit:50"), read.smartPlaylists);
+    }
+
+    @Test
+    void legacyTextFileIsMigrated() throws IOException {
+        File file = dir.resolve("music_library.json").toFile();
+        Files.writeString(file.toPath(), String.join("\n",
+                "SONG_START", "filePath:file:/music/a.mp3", "title:A", "artist:X", "album:Y", "genre:Z", "SONG_END",
+                "SONG_START", "filePath:file:/music/b.mp3", "title:B", "artist:", "album:", "genre:", "SONG_END",
+                "PLAYLIST_START:Favourites", "PLAYLIST_SONG:file:/music/b.mp3", "PLAYLIST_SONG:file:/music/gone.mp3",
+                "PLAYLIST_SONG:file:/music/a.mp3", "PLAYLIST_END", ""), StandardCharsets.UTF_8);
+        assertFalse(LibrarySnapshot.isBinary(file));
+
+        LibrarySnapshot legacy = LibrarySnapshot.read(file);
+        assertEquals(2, legacy.songs.size());
+        assertEquals("Unknown Artist", legacy.songs.get(1).getArtist());
+        assertArrayEquals(new int[] {1, 0}, legacy.playlists.get(0).songIds);
+
+        // The next save writes the binary format with the same contents
+        File migrated = dir.resolve("library.noiz").toFile();
+        new LibrarySnapshot(legacy.songs, legacy.scanFolders, legacy.playlists, legacy.smartPlaylists, 0, legacy.nextSongId).write(migrated);
+        LibrarySnapshot read = LibrarySnapshot.read(migrated);
+        for (int i = 0; i < legacy.songs.size(); i++) {
+            assertSameSong(legacy.songs.get(i), read.songs.get(i));
+        }
+        assertArrayEquals(new int[] {1, 0}, read.playlists.get(0).songIds);
+    }
+
+    static void assertSameSong(Song expected, Song actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getFilePath(), actual.getFilePath());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getArtist(), actual.getArtist());
+        assertEquals(expected.getAlbum(), actual.getAlbum());
+        assertEquals(expected.getGenre(), actual.getGenre());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getFileSize(), actual.getFileSize());
+        assertEquals(expected.getFingerprint(), actual.getFingerprint());
+        assertEquals(expected.getAddedAt(), actual.getAddedAt());
+        assertEquals(expected.getPlayCount(), actual.getPlayCount());
+    }
+}
@@ -0,0 +1,225 @@
+package com.musicplayer.model;
+
+import com.musicplayer.FxThread;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MusicLibraryTest {
+    @TempDir
+    Path dir;
+
+    private static Song song(int i, String genre) {
+        Song song = new Song("file:/music/" + i + ".mp3", "Title " + i, "Artist", "Album", genre, 1, 2, 100 + i);
+        song.setId(i);
+        return song;
+    }
+
+    private MusicLibrary libraryWith(List<Song> songs) throws Exception {
+        File file = dir.resolve("library.noiz").toFile();
+        LibrarySnapshot.capture(songs, List.of(), List.of(), List.of(), 0, songs.size()).write(file);
+        MusicLibrary library = new MusicLibrary();
+        FxThread.run(() -> library.loadFromFile(file));
+        return library;
+    }
+
+    private static ObservableList<Song> playlistSongs(MusicLibrary library, String name) {
+        return library.getAllPlaylists().stream()
+                .filter(p -> p.getName().equals(name))
+                .findFirst().orElseThrow().getSongs();
+    }
+
+    @Test
+    void retaggedSongsArePublishedAsOneUpdate() throws Exception {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            songs.add(song(i, i < 10 ? "Rock" : "Jazz"));
+        }
+        MusicLibrary library = libraryWith(songs);
+        List<String> changes = new ArrayList<>();
+        FilteredList<Song> jazzView = FxThread.call(() -> {
+            library.getAllSongs().addListener((ListChangeListener<Song>) change -> {
+                while (change.next()) {
+                    changes.add(change.wasUpdated() ? "update " + change.getFrom() + "-" + change.getTo() : change.toString());
+                }
+            });
+            return new FilteredList<>(library.getAllSongs(), song -> song.getGenre().equals("Jazz"));
+        });
+        assertEquals(10, FxThread.call(jazzView::size));
+        List<Song> loaded = FxThread.call(() -> new ArrayList<>(library.getAllSongs()));
+
+        // A rescan finds three rock songs retagged as jazz
+        for (int i : new int[] {1, 2, 7}) {
+            library.updateSong(new Song("file:/music/" + i + ".mp3", "Title " + i, "Artist", "Album", "Jazz", 5, 6, 100 + i));
+        }
+        long before = FxThread.call(() -> library.getPublisher().getPublishedCount());
+        FxThread.waitUntil(() -> library.getPublisher().getPublishedCount() >= before + 3);
+
+        FxThread.run(() -> {
+            // One update per run of retagged songs, all in one change event
+            assertEquals(List.of("update 1-3", "update 7-8"), changes);
+            assertEquals(13, jazzView.size());
+            assertSame(loaded.get(1), library.getAllSongs().get(1)); // Same song, new tags
+            assertEquals("Jazz", loaded.get(1).getGenre());
+            assertEquals(7, library.getCatalog().count(SongCatalog.Column.GENRE, "Rock"));
+            assertEquals(13, library.getCatalog().count(SongCatalog.Column.GENRE, "Jazz"));
+            assertEquals(7, playlistSongs(library, "Genre: Rock").size());
+            assertTrue(playlistSongs(library, "Genre: Jazz").contains(loaded.get(7)));
+            assertTrue(library.search("jazz", 20).matches(loaded.get(7)));
+        });
+    }
+
+    private static Song titled(int i, String title, String genre) {
+        Song song = new Song("file:/music/" + i + ".mp3", title, "Artist", "Album", genre, 1, 2, 100 + i);
+        song.setId(i);
+        return song;
+    }
+
+    private static void settle(MusicLibrary library) throws Exception {
+        FxThread.waitUntil(() -> library.getPublisher().getPendingCount() == 0);
+        FxThread.run(() -> { }); // Let a flush that is already running finish
+    }
+
+    private static List<String> titles(List<Song> songs) {
+        List<String> titles = new ArrayList<>();
+        for (Song song : songs) {
+            titles.add(song.getTitle());
+        }
+        return titles;
+    }
+
+    @Test
+    void smartPlaylistStaysSortedAndLimited() throws Exception {
+        MusicLibrary library = libraryWith(List.of(titled(0, "Echo", "Rock"), titled(1, "Bravo", "Rock"),
+                titled(2, "Delta", "Rock"), titled(3, "Foxtrot", "Rock"), titled(4, "Alpha", "Jazz")));
+        int[] events = new int[1];
+        ObservableList<Song> top = FxThread.call(() -> {
+            library.createSmartPlaylist("Top rock", "genre:Rock sort:title limit:3");
+            ObservableList<Song> songs = playlistSongs(library, "Top rock");
+            songs.addListener((ListChangeListener<Song>) change -> events[0]++);
+            return songs;
+        });
+        assertEquals(List.of("Bravo", "Delta", "Echo"), FxThread.call(() -> titles(top)));
+
+        // A new song sorts in and pushes the last one out, in one change
+        library.addSong(new Song("file:/music/5.mp3", "Charlie", "Artist", "Album", "Rock", 1, 2, 105));
+        settle(library);
+        assertEquals(List.of("Bravo", "Charlie", "Delta"), FxThread.call(() -> titles(top)));
+        assertEquals(1, events[0]);
+
+        // Retitled past the cut, and retagged into the playlist
+        library.updateSong(new Song("file:/music/1.mp3", "Zulu", "Artist", "Album", "Rock", 5, 6, 101));
+        settle(library);
+        assertEquals(List.of("Charlie", "Delta", "Echo"), FxThread.call(() -> titles(top)));
+        library.updateSong(new Song("file:/music/4.mp3", "Alpha", "Artist", "Album", "Rock", 5, 6, 104));
+        settle(library);
+        assertEquals(List.of("Alpha", "Charlie", "Delta"), FxThread.call(() -> titles(top)));
+
+        // Removed, so the next one moves up
+        library.removeSongs(List.of("file:/music/5.mp3"));
+        settle(library);
+        assertEquals(List.of("Alpha", "Delta", "Echo"), FxThread.call(() -> titles(top)));
+    }
+
+    @Test
+    void playCountPlaylistsFollowPlays() throws Exception {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            songs.add(song(i, "Rock"));
+        }
+        MusicLibrary library = libraryWith(songs);
+        List<Song> loaded = FxThread.call(() -> {
+            library.createSmartPlaylist("Played", "plays>1 sort:-plays");
+            library.createSmartPlaylist("Favourites", "plays>2");
+            return new ArrayList<>(library.getAllSongs());
+        });
+
+        FxThread.run(() -> {
+            for (int i = 0; i < 2; i++) {
+                library.recordPlay(loaded.get(3));
+            }
+            for (int i = 0; i < 3; i++) {
+                library.recordPlay(loaded.get(1));
+            }
+            assertEquals(List.of(loaded.get(1), loaded.get(3)), playlistSongs(library, "Played"));
+            assertEquals(List.of(loaded.get(1)), playlistSongs(library, "Favourites"));
+
+            // More plays move a song up
+            for (int i = 0; i < 2; i++) {
+                library.recordPlay(loaded.get(3));
+            }
+            assertEquals(List.of(loaded.get(3), loaded.get(1)), playlistSongs(library, "Played"));
+            assertEquals(List.of(loaded.get(1), loaded.get(3)), playlistSongs(library, "Favourites"));
+        });
+    }
+
+    @Test
+    void unreadableLibraryIsMovedAsideNotOverwritten() throws Exception {
+        File file = dir.resolve("library.noiz").toFile();
+        byte[] corrupt = {'N', 'O', 'I', 'Z', 1, 2, 3};
+        Files.write(file.toPath(), corrupt);
+        Files.write(LibraryJournal.journalFile(file, 1).toPath(), new byte[] {9});
+        MusicLibrary library = new MusicLibrary();
+        FxThread.run(() -> {
+            library.loadFromFile(file);
+            library.startAutosave(file);
+            library.stopAutosave();
+        });
+
+        File[] moved = dir.toFile().listFiles((d, name) -> name.startsWith("library.noiz.unreadable-"));
+        assertEquals(2, moved.length);
+        File movedSnapshot = Arrays.stream(moved).filter(f -> !f.getName().contains(".journal.")).findFirst().orElseThrow();
+        assertArrayEquals(corrupt, Files.readAllBytes(movedSnapshot.toPath()));
+        assertTrue(LibraryJournal.journalFile(movedSnapshot, 1).exists());
+        // A new, empty library took its place
+        assertTrue(LibrarySnapshot.read(file).songs.isEmpty());
+    }
+
+    @Test
+    void songListReportsManyUpdatesInOneChange() {
+        SongList list = new SongList();
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            songs.add(song(i, "Rock"));
+        }
+        list.addAll(songs);
+        int[] events = new int[1];
+        List<Integer> updated = new ArrayList<>();
+        list.addListener((ListChangeListener<Song>) change -> {
+            events[0]++;
+            while (change.next()) {
+                assertTrue(change.wasUpdated());
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    updated.add(i);
+                }
+            }
+        });
+        Set<Song> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        changed.add(songs.get(0));
+        changed.add(songs.get(3));
+        changed.add(songs.get(4));
+        list.updated(changed);
+        assertEquals(1, events[0]);
+        assertEquals(List.of(0, 3, 4), updated);
+
+        list.updated(Set.of());
+        assertEquals(1, events[0]);
+    }
+}
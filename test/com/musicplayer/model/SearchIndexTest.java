@@ -0,0 +1,101 @@
+package com.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+    private final SongList songs = new SongList();
+    private final SearchIndex index = new SearchIndex();
+
+    SearchIndexTest() {
+        songs.addListener(index::onSongsChanged);
+    }
+
+    private Song add(int id, String title, String artist, String album, String genre) {
+        Song song = new Song("file:/music/" + id + ".mp3", title, artist, album, genre, 1, 2, 100 + id);
+        song.setId(id);
+        songs.add(song);
+        return song;
+    }
+
+    private void retag(Song song, String title, String artist, String album, String genre) {
+        song.updateFrom(new Song(song.getFilePath(), title, artist, album, genre, 5, 6, 200 + song.getId()));
+        Set<Song> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        changed.add(song);
+        songs.updated(changed);
+    }
+
+    @Test
+    void findsExactPrefixAndMisspelledWords() {
+        Song abbey = add(0, "Come Together", "The Beatles", "Abbey Road", "Rock");
+        Song blue = add(1, "So What", "Miles Davis", "Kind of Blue", "Jazz");
+
+        SearchResult exact = index.search("beatles", 10);
+        assertEquals(1, exact.getMatchCount());
+        assertTrue(exact.matches(abbey));
+
+        SearchResult prefix = index.search("abb", 10);
+        assertTrue(prefix.matches(abbey));
+        assertFalse(prefix.matches(blue));
+
+        // A swap of two letters, and every word has to match
+        assertTrue(index.search("beatels", 10).matches(abbey));
+        assertTrue(index.search("beatels abb", 10).matches(abbey));
+        assertEquals(0, index.search("beatels jazz", 10).getMatchCount());
+
+        // Too short to be matched loosely
+        assertEquals(0, index.search("abx", 10).getMatchCount());
+
+        assertNull(index.search("  ", 10));
+    }
+
+    @Test
+    void titleMatchRanksAboveGenreMatch() {
+        Song genre = add(0, "Night Train", "Oscar Peterson", "Night Train", "Blues");
+        Song title = add(1, "Blues", "Miles Davis", "Kind of Blue", "Jazz");
+
+        SearchResult result = index.search("blues", 10);
+        assertEquals(2, result.getMatchCount());
+        assertEquals(0, result.rankOf(title));
+        assertEquals(1, result.rankOf(genre));
+    }
+
+    @Test
+    void retaggedAndRemovedSongsLeaveNoStalePostings() {
+        Song song = add(0, "Yesterday", "The Beatles", "Help!", "Rock");
+        Song other = add(1, "Let It Be", "The Beatles", "Let It Be", "Rock");
+
+        retag(song, "Yesterday", "Matt Monro", "Help!", "Pop");
+        assertFalse(index.search("beatles", 10).matches(song));
+        assertTrue(index.search("beatles", 10).matches(other));
+        assertTrue(index.search("monro", 10).matches(song));
+        assertTrue(index.search("pop", 10).matches(song));
+
+        songs.remove(song);
+        assertEquals(0, index.search("yesterday", 10).getMatchCount());
+        assertEquals(0, index.search("monro", 10).getMatchCount());
+        assertEquals(1, index.search("beatles", 10).getMatchCount());
+        // Words no song has any more are dropped
+        assertEquals(0, index.search("help", 10).getMatchCount());
+        assertEquals(6, index.termCount()); // let, it, be, the, beatles, rock
+    }
+
+    @Test
+    void editDistanceStopsPastTheBound() {
+        assertEquals(0, SearchIndex.editDistance("beatles", "beatles", 2));
+        assertEquals(1, SearchIndex.editDistance("beatels", "beatles", 2)); // A swap is one edit
+        assertEquals(1, SearchIndex.editDistance("beatle", "beatles", 2));
+        assertEquals(2, SearchIndex.editDistance("beetels", "beatles", 2));
+        assertEquals(2, SearchIndex.editDistance("beatles", "bxxtles", 1)); // Capped at maxEdits + 1
+        assertEquals(3, SearchIndex.editDistance("abc", "abcdefgh", 2)); // Lengths too far apart
+        assertEquals(1, SearchIndex.editDistance("", "a", 1));
+    }
+}
@@ -0,0 +1,111 @@
+package com.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SongCatalogTest {
+    private static Song song(String name, String artist, String album, String genre) {
+        return new Song("file:/music/" + name + ".mp3", name, artist, album, genre, 1, 2, 3);
+    }
+
+    private static BitSet bits(int... ids) {
+        BitSet bits = new BitSet();
+        for (int id : ids) {
+            bits.set(id);
+        }
+        return bits;
+    }
+
+    @Test
+    void removedIdsAreNotHandedOutAgain() {
+        SongCatalog catalog = new SongCatalog();
+        Song a = song("a", "X", "Y", "Rock");
+        Song b = song("b", "X", "Y", "Rock");
+        catalog.add(a);
+        catalog.add(b);
+        assertEquals(0, a.getId());
+        assertEquals(1, b.getId());
+
+        catalog.remove(a);
+        Song c = song("c", "X", "Y", "Rock");
+        catalog.add(c);
+        assertEquals(2, c.getId());
+        assertNull(catalog.get(0));
+
+        // IDs retired in an earlier session stay retired
+        catalog.clear();
+        catalog.add(b);
+        catalog.reserveIds(3);
+        Song d = song("d", "X", "Y", "Rock");
+        catalog.add(d);
+        assertEquals(3, d.getId());
+        assertSame(b, catalog.get(1));
+    }
+
+    @Test
+    void columnsFollowRetagsAndRemovals() {
+        SongCatalog catalog = new SongCatalog();
+        Song a = song("a", "Miles Davis", "Kind of Blue", "Jazz");
+        Song b = song("b", "Miles Davis", "Kind of Blue", "Jazz");
+        Song c = song("c", "Nirvana", "Nevermind", "Rock");
+        catalog.add(a);
+        catalog.add(b);
+        catalog.add(c);
+        assertEquals(3, catalog.size());
+        assertEquals(List.of(a, b), catalog.songsOf("Miles Davis", "Kind of Blue", null));
+
+        b.updateFrom(song("b", "Nirvana", "Nevermind", "Rock"));
+        catalog.update(b);
+        assertEquals(3, catalog.size());
+        assertEquals(bits(a.getId()), catalog.idsWith(SongCatalog.Column.ARTIST, "Miles Davis"));
+        assertEquals(bits(b.getId(), c.getId()), catalog.idsWith(SongCatalog.Column.GENRE, "Rock"));
+        assertEquals("Nirvana", catalog.valueOf(SongCatalog.Column.ARTIST, catalog.code(SongCatalog.Column.ARTIST, b.getId())));
+
+        catalog.remove(c);
+        catalog.remove(c); // Already gone
+        assertEquals(2, catalog.size());
+        assertEquals(bits(a.getId(), b.getId()), catalog.ids());
+        assertEquals(bits(b.getId()), catalog.idsWith(SongCatalog.Column.ALBUM, "Nevermind"));
+        assertEquals(List.of(b), catalog.songsOf("Nirvana", "Nevermind", null));
+        assertTrue(catalog.songsOf("Nirvana", "Nevermind", bits(a.getId())).isEmpty());
+        assertNull(catalog.get(c.getId()));
+    }
+
+    @Test
+    void countsStayInStepWithTheSongs() {
+        SongCatalog catalog = new SongCatalog();
+        Song a = song("a", "Miles Davis", "Kind of Blue", "Jazz");
+        Song b = song("b", "Miles Davis", "Kind of Blue", "Jazz");
+        Song c = song("c", "Miles Davis", "Bitches Brew", "Jazz");
+        Song d = song("d", "Nirvana", "Nevermind", "Rock");
+        for (Song song : List.of(a, b, c, d)) {
+            catalog.add(song);
+        }
+        int kindOfBlue = catalog.codeOf(SongCatalog.Column.ALBUM, "Kind of Blue");
+        int bitchesBrew = catalog.codeOf(SongCatalog.Column.ALBUM, "Bitches Brew");
+        assertEquals(3, catalog.count(SongCatalog.Column.ARTIST, "Miles Davis"));
+        assertEquals(Map.of(kindOfBlue, 2, bitchesBrew, 1), catalog.albumCounts("Miles Davis"));
+
+        b.updateFrom(song("b", "Nirvana", "Nevermind", "Rock"));
+        catalog.update(b);
+        catalog.remove(c);
+        assertEquals(1, catalog.count(SongCatalog.Column.ARTIST, "Miles Davis"));
+        assertEquals(2, catalog.count(SongCatalog.Column.GENRE, "Rock"));
+        assertEquals(0, catalog.count(SongCatalog.Column.ALBUM, "Bitches Brew"));
+        assertEquals(Map.of(kindOfBlue, 1), catalog.albumCounts("Miles Davis"));
+        // The kept counts agree with counting the songs one by one
+        for (SongCatalog.Column column : SongCatalog.Column.values()) {
+            assertArrayEquals(catalog.counts(column, catalog.ids()), catalog.counts(column));
+        }
+        assertEquals(catalog.albumCounts("Nirvana", catalog.ids()), catalog.albumCounts("Nirvana"));
+    }
+}
@@ -0,0 +1,74 @@
+package com.musicplayer.model;
+
+import javafx.beans.property.Property;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * What keeps songs small: tags that repeat are shared between songs, and
+ * the UI properties aren't created until something asks for them.
+ */
+class SongFootprintTest {
+    // The property fields, read directly since the getters would create them
+    private static List<Field> propertyFields() {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : Song.class.getDeclaredFields()) {
+            if (Property.class.isAssignableFrom(field.getType())) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    @Test
+    void repeatedTagsAreShared() {
+        // New strings each time, as the tag reader returns them
+        Song first = new Song("file:/a.mp3", "A", new String("Artist"), new String("Album"), new String("Rock"));
+        Song second = new Song("file:/b.mp3", "B", new String("Artist"), new String("Album"), new String("Rock"));
+        assertSame(first.getArtist(), second.getArtist());
+        assertSame(first.getAlbum(), second.getAlbum());
+        assertSame(first.getGenre(), second.getGenre());
+
+        // Still shared after a rescan brings new copies of the same tags
+        second.updateFrom(new Song("file:/b.mp3", "B", new String("Artist"), new String("Album"), new String("Rock")));
+        assertSame(first.getArtist(), second.getArtist());
+        assertSame(first.getGenre(), second.getGenre());
+    }
+
+    @Test
+    void propertiesAreOnlyCreatedWhenAskedFor() throws Exception {
+        List<Field> fields = propertyFields();
+        assertEquals(5, fields.size());
+
+        Song song = new Song("file:/a.mp3", "Title", "Artist", "Album", "Rock");
+        song.getTitle();
+        song.isAvailable();
+        song.updateFrom(new Song("file:/a.mp3", "New Title", "Artist", "Album", "Jazz"));
+        for (Field field : fields) {
+            assertNull(field.get(song), field.getName());
+        }
+        assertEquals("New Title", song.getTitle());
+
+        // Once made, a property is kept and follows the tags
+        assertSame(song.titleProperty(), song.titleProperty());
+        song.artistProperty();
+        song.albumProperty();
+        song.genreProperty();
+        song.availableProperty();
+        for (Field field : fields) {
+            assertNotNull(field.get(song), field.getName());
+        }
+        song.updateFrom(new Song("file:/a.mp3", "Newer Title", "Artist", "Album", "Jazz"));
+        assertEquals("Newer Title", song.titleProperty().get());
+        assertEquals("Newer Title", song.getTitle());
+    }
+}
@@ -0,0 +1,54 @@
+package com.musicplayer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SortKeysTest {
+    private static List<String> sorted(SortKeys.Field field, String... values) {
+        List<Song> songs = new ArrayList<>();
+        for (String value : values) {
+            songs.add(field == SortKeys.Field.TITLE
+                    ? new Song("file:/music/" + value + ".mp3", value, "Artist", "Album", "Genre")
+                    : new Song("file:/music/" + value + ".mp3", "Title", value, "Album", "Genre"));
+        }
+        songs.sort(SortKeys.comparator(field));
+        List<String> names = new ArrayList<>();
+        for (Song song : songs) {
+            names.add(field == SortKeys.Field.TITLE ? song.getTitle() : song.getArtist());
+        }
+        return names;
+    }
+
+    @Test
+    void leadingTheIsSkipped() {
+        assertEquals(List.of("Abba", "The Beatles", "Cream", "Theory"),
+                sorted(SortKeys.Field.ARTIST, "Cream", "Theory", "The Beatles", "Abba"));
+    }
+
+    @Test
+    void accentsAndCaseSortWithThePlainLetters() {
+        assertEquals(List.of("eclair", "\u00C9clair", "Ecole", "fig"),
+                sorted(SortKeys.Field.TITLE, "fig", "Ecole", "\u00C9clair", "eclair"));
+    }
+
+    @Test
+    void prefixesOrderLikeTheFullKeys() {
+        String[] values = {"", "a", "A", "ab", "abc", "abcdefghij", "abcdefghik", "b", "\u00E9t\u00E9", "ete",
+                "Zoo", "zo", "The End", "\u4E2D\u6587", "\u00C5ngstr\u00F6m", "9 Crimes", "99 Problems"};
+        for (String a : values) {
+            for (String b : values) {
+                byte[] keyA = SortKeys.keyOf(SortKeys.Field.TITLE, a);
+                byte[] keyB = SortKeys.keyOf(SortKeys.Field.TITLE, b);
+                int byPrefix = Long.compareUnsigned(SortKeys.prefixOf(keyA), SortKeys.prefixOf(keyB));
+                if (byPrefix != 0) {
+                    assertEquals(Integer.signum(Arrays.compareUnsigned(keyA, keyB)), Integer.signum(byPrefix), a + " vs " + b);
+                }
+            }
+        }
+    }
+}
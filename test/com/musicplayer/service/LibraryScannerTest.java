@@ -0,0 +1,165 @@
+package com.musicplayer.service;
+
+import com.musicplayer.FxThread;
+import com.musicplayer.model.MusicLibrary;
+import com.musicplayer.model.Song;
+import com.musicplayer.model.UserPlaylist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LibraryScannerTest {
+    @TempDir
+    Path dir;
+
+    private final MusicLibrary library = new MusicLibrary();
+    private final LibraryScanner scanner = new LibraryScanner(library, 2, 4);
+
+    // Untagged files with their own audio, so each has its own fingerprint
+    private static void writeTrack(Path file, long seed) throws Exception {
+        byte[] audio = new byte[20_000];
+        new Random(seed).nextBytes(audio);
+        Files.createDirectories(file.getParent());
+        Files.write(file, audio);
+    }
+
+    private static String uri(Path file) {
+        return file.toUri().toString();
+    }
+
+    private ScanTask run(Supplier<ScanTask> start) throws Exception {
+        ScanTask task = start.get();
+        assertNotNull(task);
+        FxThread.waitUntil(() -> task.isDone() && library.getPublisher().getPendingCount() == 0);
+        FxThread.run(() -> { }); // Let a flush that is already running finish
+        return task;
+    }
+
+    private UserPlaylist playlistWith(Song song) throws Exception {
+        return FxThread.call(() -> {
+            library.createUserPlaylist("Favourites");
+            UserPlaylist playlist = library.getUserPlaylists().get(0);
+            playlist.addSong(song);
+            return playlist;
+        });
+    }
+
+    @Test
+    void renamedAndMovedFilesKeepTheirSong() throws Exception {
+        Path first = dir.resolve("first.mp3");
+        writeTrack(first, 1);
+        writeTrack(dir.resolve("second.mp3"), 2);
+        run(() -> scanner.scan(dir.toFile()));
+        Song song = FxThread.call(() -> library.getSongByPath(uri(first)));
+        assertNotNull(song);
+        int id = song.getId();
+        UserPlaylist playlist = playlistWith(song);
+
+        // Renamed: found by a full rescan of the folder
+        Path renamed = dir.resolve("renamed.mp3");
+        Files.move(first, renamed);
+        ScanTask rescan = run(() -> scanner.scan(dir.toFile()));
+        assertEquals(1, rescan.getMoved());
+        assertEquals(0, rescan.getDuplicates());
+        assertEquals(Map.of(uri(first), uri(renamed)), rescan.getDelta().getMoved());
+        assertTrue(rescan.getDelta().getRemoved().isEmpty());
+
+        // Moved into a subfolder: reported by the folder watcher as a delete and a create
+        Path moved = dir.resolve("album").resolve("renamed.mp3");
+        Files.createDirectories(moved.getParent());
+        Files.move(renamed, moved);
+        ScanTask watched = run(() -> scanner.scanFiles(List.of(renamed, moved)));
+        assertEquals(1, watched.getMoved());
+        assertTrue(watched.getDelta().getRemoved().isEmpty());
+
+        FxThread.run(() -> {
+            assertEquals(2, library.getAllSongs().size());
+            assertNull(library.getSongByPath(uri(first)));
+            assertNull(library.getSongByPath(uri(renamed)));
+            assertSame(song, library.getSongByPath(uri(moved)));
+            assertEquals(uri(moved), song.getFilePath());
+            assertEquals(id, song.getId());
+            assertEquals(List.of(song), playlist.getSongs());
+            assertEquals(1, library.search("renamed", 10).getMatchCount());
+        });
+    }
+
+    @Test
+    void failedWalkRemovesNothing() throws Exception {
+        Path seen = dir.resolve("a.mp3");
+        Path unseen = dir.resolve("b.mp3");
+        writeTrack(seen, 1);
+        writeTrack(unseen, 2);
+        run(() -> scanner.scan(dir.toFile()));
+
+        // The walk gets through one file, then the folder fails to list
+        LibraryScanner failing = new LibraryScanner(library, 1, 1) {
+            @Override
+            void walkTree(Path root, FileVisitor<Path> visitor) throws IOException {
+                visitor.preVisitDirectory(root, Files.readAttributes(root, BasicFileAttributes.class));
+                visitor.visitFile(seen, Files.readAttributes(seen, BasicFileAttributes.class));
+                throw new IOException("Directory listing failed");
+            }
+        };
+        ScanTask rescan = run(() -> failing.scan(dir.toFile()));
+        assertTrue(rescan.getDelta().getRemoved().isEmpty());
+        FxThread.run(() -> assertNotNull(library.getSongByPath(uri(unseen))));
+    }
+
+    @Test
+    void catchUpMarksMissingFilesInsteadOfRemovingThem() throws Exception {
+        Path kept = dir.resolve("kept.mp3");
+        Path missing = dir.resolve("missing.mp3");
+        writeTrack(kept, 1);
+        writeTrack(missing, 2);
+        run(() -> scanner.scan(dir.toFile()));
+
+        // While the app was closed, one file went away and another arrived
+        Files.delete(missing);
+        Path added = dir.resolve("added.mp3");
+        writeTrack(added, 3);
+        ScanTask catchUp = run(() -> scanner.catchUp(dir.toFile()));
+        assertEquals(1, catchUp.getAdded());
+        assertTrue(catchUp.getDelta().getRemoved().isEmpty());
+
+        FxThread.run(() -> {
+            assertEquals(3, library.getAllSongs().size());
+            assertNotNull(library.getSongByPath(uri(added)));
+            assertFalse(library.getSongByPath(uri(missing)).isAvailable());
+            assertTrue(library.getSongByPath(uri(kept)).isAvailable());
+        });
+    }
+
+    @Test
+    void copiesAreStillDuplicates() throws Exception {
+        Path original = dir.resolve("original.mp3");
+        writeTrack(original, 1);
+        run(() -> scanner.scan(dir.toFile()));
+
+        Files.copy(original, dir.resolve("copy.mp3"));
+        ScanTask rescan = run(() -> scanner.scan(dir.toFile()));
+        assertEquals(1, rescan.getDuplicates());
+        assertEquals(0, rescan.getMoved());
+
+        FxThread.run(() -> {
+            assertEquals(1, library.getAllSongs().size());
+            assertNotNull(library.getSongByPath(uri(original)));
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.musicplayer.service;
+
+import com.musicplayer.FxThread;
+import com.musicplayer.model.MusicLibrary;
+import com.musicplayer.model.Song;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PlaylistFilesTest {
+    @TempDir
+    Path dir;
+
+    private final MusicLibrary library = new MusicLibrary();
+
+    private List<Song> songsAt(Path... files) throws Exception {
+        for (Path file : files) {
+            library.addSong(new Song(file.toUri().toString(), file.getFileName().toString(), "Artist", "Album", "Rock"));
+        }
+        FxThread.waitUntil(() -> library.getPublisher().getPendingCount() == 0);
+        FxThread.run(() -> { }); // Let a flush that is already running finish
+        return FxThread.call(() -> {
+            Song[] songs = new Song[files.length];
+            for (int i = 0; i < files.length; i++) {
+                songs[i] = library.getSongByPath(files[i].toUri().toString());
+            }
+            return List.of(songs);
+        });
+    }
+
+    @Test
+    void writtenPlaylistsReadBackInOrder() throws Exception {
+        Path music = dir.resolve("music");
+        List<Song> songs = songsAt(music.resolve("b.mp3"), music.resolve("a.mp3"), music.resolve("sub").resolve("c.flac"));
+
+        for (String name : new String[] {"list.m3u", "list.m3u8", "list.pls"}) {
+            File file = dir.resolve(name).toFile();
+            PlaylistFiles.write(songs, file);
+            PlaylistImport imported = PlaylistFiles.read(file, library);
+            assertEquals(songs, imported.getSongs(), name);
+            assertEquals(List.of(), imported.getUnresolved(), name);
+        }
+    }
+
+    @Test
+    void relativeEntriesResolveAgainstThePlaylistFolder() throws Exception {
+        Path music = dir.resolve("music");
+        List<Song> songs = songsAt(music.resolve("a.mp3"), music.resolve("sub").resolve("b.mp3"), dir.resolve("c.mp3"));
+        Files.createDirectories(music);
+
+        Path m3u = music.resolve("list.m3u8");
+        Files.write(m3u, List.of("#EXTM3U", "a.mp3", "sub\\b.mp3", "../c.mp3", "missing.mp3", "http://radio.example/stream"));
+        PlaylistImport imported = PlaylistFiles.read(m3u.toFile(), library);
+        assertEquals(songs, imported.getSongs());
+        assertEquals(List.of("missing.mp3", "http://radio.example/stream"), imported.getUnresolved());
+
+        // PLS entries go by their numbers, not by line order
+        Path pls = music.resolve("list.pls");
+        Files.write(pls, List.of("[playlist]", "File2=sub/b.mp3", "Title2=B", "File1=a.mp3", "NumberOfEntries=2", "Version=2"));
+        assertEquals(songs.subList(0, 2), PlaylistFiles.read(pls.toFile(), library).getSongs());
+    }
+}
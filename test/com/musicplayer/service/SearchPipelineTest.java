@@ -0,0 +1,44 @@
+package com.musicplayer.service;
+
+import com.musicplayer.FxThread;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchPipelineTest {
+    @Test
+    void libraryChangesDoNotStarveTheSearch() throws Exception {
+        AtomicInteger searches = new AtomicInteger();
+        AtomicInteger results = new AtomicInteger();
+        AtomicLong lastSearchAt = new AtomicLong();
+        SearchPipeline pipeline = new SearchPipeline(query -> {
+            lastSearchAt.set(System.nanoTime());
+            searches.incrementAndGet();
+            return null;
+        }, result -> results.incrementAndGet());
+        try {
+            FxThread.run(() -> pipeline.submit("rock"));
+
+            // A scan publishes library changes far more often than the debounce delay
+            long end = System.currentTimeMillis() + 1000;
+            while (System.currentTimeMillis() < end) {
+                FxThread.run(pipeline::rerun);
+                Thread.sleep(20);
+            }
+            assertTrue(results.get() >= 3, "results shown during the changes: " + results.get());
+            assertTrue(searches.get() <= 1000 / 150 + 1, "searches run: " + searches.get());
+            assertEquals(0, pipeline.getCancelledCount());
+
+            // The last change is always searched for
+            long lastChangeAt = System.nanoTime();
+            FxThread.run(pipeline::rerun);
+            FxThread.waitUntil(() -> lastSearchAt.get() > lastChangeAt);
+        } finally {
+            pipeline.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.musicplayer.service;
+
+import com.musicplayer.model.Song;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShuffleQueueTest {
+    private static ObservableList<Song> songs(int count) {
+        ObservableList<Song> songs = FXCollections.observableArrayList();
+        for (int i = 0; i < count; i++) {
+            songs.add(new Song("file:/music/" + i + ".mp3", "Title " + i, "Artist", "Album", "Rock"));
+        }
+        return songs;
+    }
+
+    private static Set<Song> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    @Test
+    void everyRoundPlaysEverySongOnce() {
+        ObservableList<Song> songs = songs(50);
+        ShuffleQueue queue = new ShuffleQueue(songs, new Random(1));
+        Song last = null;
+        for (int round = 0; round < 20; round++) {
+            Set<Song> played = identitySet();
+            for (int i = 0; i < songs.size(); i++) {
+                Song next = queue.next();
+                assertTrue(played.add(next), "played twice in round " + round);
+                if (i == 0) {
+                    assertNotEquals(last, next, "round " + round + " opened with the song that closed the last one");
+                }
+                last = next;
+            }
+            assertEquals(songs.size(), played.size());
+        }
+    }
+
+    @Test
+    void previousAndNextRetraceTheHistory() {
+        ShuffleQueue queue = new ShuffleQueue(songs(30), new Random(2));
+        assertNull(queue.previous());
+        List<Song> history = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            history.add(queue.next());
+        }
+        for (int i = 18; i >= 0; i--) {
+            assertSame(history.get(i), queue.previous());
+        }
+        assertNull(queue.previous());
+        assertSame(history.get(0), queue.current());
+        for (int i = 1; i < 20; i++) {
+            assertSame(history.get(i), queue.next());
+        }
+    }
+
+    @Test
+    void peekingDoesNotMoveOrChangeTheNextSong() {
+        ShuffleQueue queue = new ShuffleQueue(songs(10), new Random(3));
+        Song first = queue.next();
+        Song peeked = queue.peekNext();
+        assertSame(peeked, queue.peekNext());
+        assertSame(first, queue.current());
+        assertSame(peeked, queue.next());
+        assertSame(first, queue.previous());
+    }
+
+    @Test
+    void peekingAtTheEndOfARoundKeepsItsHistory() {
+        ObservableList<Song> songs = songs(8);
+        ShuffleQueue queue = new ShuffleQueue(songs, new Random(4));
+        List<Song> round = new ArrayList<>();
+        for (int i = 0; i < songs.size(); i++) {
+            round.add(queue.next());
+        }
+
+        // The player looks ahead while the last song of the round is still playing
+        Song opener = queue.peekNext();
+        assertSame(round.get(7), queue.current());
+        assertSame(round.get(6), queue.previous());
+
+        // Picking a song by hand and carrying on must still play every song in the next round
+        queue.moveTo(round.get(7));
+        assertSame(opener, queue.next());
+        Set<Song> played = identitySet();
+        played.add(opener);
+        queue.moveTo(round.get(2));
+        played.add(round.get(2));
+        for (int i = 2; i < songs.size(); i++) {
+            assertTrue(played.add(queue.next()));
+        }
+        assertEquals(songs.size(), played.size());
+    }
+
+    @Test
+    void followsChangesToTheListMidRound() {
+        ObservableList<Song> songs = songs(40);
+        ShuffleQueue queue = new ShuffleQueue(songs, new Random(5));
+        List<Song> history = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            history.add(queue.next());
+        }
+        Song peeked = queue.peekNext();
+
+        // Re-sorting changes nothing
+        FXCollections.sort(songs, Comparator.comparing(Song::getFilePath).reversed());
+        assertSame(peeked, queue.peekNext());
+
+        // Remove played and unplayed songs, including the peeked one, and add new ones
+        songs.remove(history.get(3));
+        songs.remove(peeked);
+        songs.removeIf(song -> song.getFilePath().endsWith("7.mp3"));
+        for (int i = 0; i < 5; i++) {
+            songs.add(new Song("file:/music/new" + i + ".mp3", "New " + i, "Artist", "Album", "Rock"));
+        }
+
+        Set<Song> played = identitySet();
+        for (Song song : history) {
+            if (songs.contains(song)) {
+                played.add(song);
+            }
+        }
+        int unplayed = songs.size() - played.size();
+        for (int i = 0; i < unplayed; i++) {
+            Song next = queue.next();
+            assertTrue(songs.contains(next), "played a removed song");
+            assertTrue(played.add(next), "played twice: " + next);
+        }
+        assertEquals(songs.size(), played.size());
+    }
+
+    @Test
+    void keepsTheCurrentSongWhenMostOfTheHistoryIsRemoved() {
+        ObservableList<Song> songs = songs(100);
+        ShuffleQueue queue = new ShuffleQueue(songs, new Random(6));
+        for (int i = 0; i < 80; i++) {
+            queue.next();
+        }
+        Song current = queue.current();
+        Song before = queue.previous();
+        queue.next();
+        List<Song> keep = new ArrayList<>(songs.subList(0, 10));
+        keep.add(current);
+        keep.add(before);
+        songs.retainAll(keep);
+        assertSame(current, queue.current());
+        assertSame(before, queue.previous());
+    }
+
+    @Test
+    void emptiesWithTheList() {
+        ObservableList<Song> songs = songs(3);
+        ShuffleQueue queue = new ShuffleQueue(songs, new Random(7));
+        queue.next();
+        songs.clear();
+        assertNull(queue.current());
+        assertNull(queue.next());
+        Song only = new Song("file:/music/only.mp3", "Only", "Artist", "Album", "Rock");
+        songs.add(only);
+        assertSame(only, queue.next());
+        assertSame(only, queue.next()); // A new round of one
+        queue.detach();
+    }
+}